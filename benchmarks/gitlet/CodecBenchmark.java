@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks comparing the binary commit format with Java serialization,
+ *  decoding a commit that lists the given number of files. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    /** Number of files in the commit. */
+    @Param({ "1000" })
+    public int files;
+
+    /** Build the commit and encode it both ways. */
+    @Setup(Level.Trial)
+    public void create() {
+        HashMap<String, String> blobs = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            blobs.put("file" + i + ".txt", Utils.sha1("contents " + i));
+        }
+        _commit = new Commit("benchmark commit", Utils.sha1("parent"), blobs);
+        _serialized = Utils.serialize(_commit);
+        _binary = _commit.encode();
+    }
+
+    /** Encode the commit in the binary format. */
+    @Benchmark
+    public byte[] encodeBinary() {
+        return _commit.encode();
+    }
+
+    /** Decode the commit from the binary format. */
+    @Benchmark
+    public Commit decodeBinary() {
+        return Commit.decode(_binary);
+    }
+
+    /** Decode the commit from its serialized form. */
+    @Benchmark
+    public Commit decodeSerialized() {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(_serialized))) {
+            return (Commit) in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The commit. */
+    private Commit _commit;
+    /** The commit serialized. */
+    private byte[] _serialized;
+    /** The commit in the binary format. */
+    private byte[] _binary;
+}
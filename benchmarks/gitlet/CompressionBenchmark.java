@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/** Benchmarks of reading objects stored with each compression setting,
+ *  for text resembling source code and for incompressible binary data.
+ *  Each operation reads all the objects once, through a store with an
+ *  empty cache, so the times give the read throughput; the setup prints
+ *  the bytes the objects occupy on disk, which is the other side of the
+ *  tradeoff. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    /** Codec name, or "none", and for deflate, the level after a colon. */
+    @Param({ "none", "deflate:1", "deflate:6", "deflate:9" })
+    public String compression;
+    /** Kind of contents: "text" or "binary". */
+    @Param({ "text", "binary" })
+    public String contents;
+    /** Number of objects. */
+    @Param({ "256" })
+    public int objects;
+    /** Size of each object in bytes. */
+    @Param({ "65536" })
+    public int size;
+
+    /** Store the objects and report their footprint. */
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        String[] setting = compression.split(":");
+        _codec = setting[0].equals(Config.NONE) ? null
+            : Codec.forName(setting[0]);
+        _level = setting.length > 1 ? Integer.parseInt(setting[1]) : -1;
+        _dir = Files.createTempDirectory("gitlet-bench").toFile();
+        _sink = new File(_dir, "sink");
+        ObjectStore store = store();
+        Random random = new Random(11);
+        for (int k = 0; k < objects; k += 1) {
+            byte[] data = contents.equals("text") ? text(random)
+                : binary(random);
+            String id = Utils.sha1(data);
+            store.write(id, data);
+            _ids.add(id);
+        }
+        long stored;
+        try (Stream<Path> files = Files.walk(_dir.toPath())) {
+            stored = files.filter(Files::isRegularFile)
+                .mapToLong(p -> p.toFile().length()).sum();
+        }
+        System.out.printf("%s %s: %d bytes stored in %d bytes (%.1f%%)%n",
+                          compression, contents, (long) objects * size,
+                          stored, 100.0 * stored / objects / size);
+    }
+
+    /** Remove the objects. */
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(_dir.toPath())) {
+            files.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** Read every object into memory, as diffs and merges do. */
+    @Benchmark
+    public long read() {
+        ObjectStore store = store();
+        long total = 0;
+        for (String id : _ids) {
+            total += store.map(id).remaining();
+        }
+        return total;
+    }
+
+    /** Copy every object to a file, as checkout does. */
+    @Benchmark
+    public long copy() {
+        ObjectStore store = store();
+        try (FileChannel out = FileChannel.open(_sink.toPath(), WRITE, CREATE,
+                                                TRUNCATE_EXISTING)) {
+            for (String id : _ids) {
+                store.copyTo(id, out);
+            }
+            return out.size();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Return a store of the objects with an empty cache. */
+    private ObjectStore store() {
+        return new ObjectStore(new File(_dir, "blobs"),
+                               new File(_dir, "packs"), _codec, _level);
+    }
+
+    /** Return SIZE bytes of lines built from a small vocabulary, chosen by
+     *  RANDOM, so that they compress roughly as source code does. */
+    private byte[] text(Random random) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < size) {
+            int indent = 4 * random.nextInt(4);
+            result.append(" ".repeat(indent));
+            int words = 1 + random.nextInt(8);
+            for (int w = 0; w < words; w += 1) {
+                result.append(WORDS[random.nextInt(WORDS.length)])
+                    .append(w + 1 < words ? " " : ";\n");
+            }
+        }
+        result.setLength(size);
+        return result.toString().getBytes();
+    }
+
+    /** Return SIZE random bytes from RANDOM. */
+    private byte[] binary(Random random) {
+        byte[] result = new byte[size];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /** Words making up text contents. */
+    private static final String[] WORDS = {
+        "int", "return", "if", "else", "for", "while", "String", "result",
+        "null", "new", "=", "+=", "==", "(", ")", "{", "}", "this", "final",
+        "private", "static", "void", "count", "index", "value", "name",
+        "0", "1", "k", "i", "length", "get", "put", "add", "size",
+    };
+
+    /** Directory holding the objects. */
+    private File _dir;
+    /** File to which copy writes. */
+    private File _sink;
+    /** The codec, or null for none. */
+    private Codec _codec;
+    /** The codec's level. */
+    private int _level;
+    /** Ids of the objects. */
+    private final List<String> _ids = new ArrayList<>();
+}
@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Diff on two versions of a file of the given number of
+ *  lines, where the second version changes the given percentage of the
+ *  lines of the first, in runs of a few lines each. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiffBenchmark {
+
+    /** Number of lines in the first version. */
+    @Param({ "1000", "4000" })
+    public int lines;
+    /** Percentage of lines changed in the second version. */
+    @Param({ "1", "10" })
+    public int changed;
+
+    /** Build the two versions. */
+    @Setup(Level.Trial)
+    public void create() {
+        Random random = new Random(61);
+        for (int k = 0; k < lines; k += 1) {
+            _from.add("line " + k + " " + random.nextInt());
+        }
+        int k = 0;
+        while (k < lines) {
+            if (random.nextInt(100) < changed) {
+                int run = 1 + random.nextInt(4);
+                for (int i = 0; i < run; i += 1) {
+                    _to.add("changed " + random.nextInt());
+                }
+                k += random.nextBoolean() ? run : 0;
+            } else {
+                _to.add(_from.get(k));
+                k += 1;
+            }
+        }
+    }
+
+    /** Compute the edits from the first version to the second. */
+    @Benchmark
+    public int[] diffs() {
+        Diff diff = new Diff();
+        diff.setSequences(_from, _to);
+        return diff.diffs();
+    }
+
+    /** The first version. */
+    private final List<String> _from = new ArrayList<>();
+    /** The second version. */
+    private final List<String> _to = new ArrayList<>();
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of gitlet commands on a SyntheticRepo whose shape is given
+ *  by the parameters files, fileSize, depth and branches.  Each command is
+ *  run through Repo, as Main would run it, but without starting a JVM, so
+ *  the times exclude startup.  Commands that change the repository are
+ *  given a fresh change to work on before every invocation, outside the
+ *  measured time. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepoBenchmark {
+
+    /** Number of files on master. */
+    @Param({ "1000" })
+    public int files;
+    /** Approximate size of each file in bytes. */
+    @Param({ "4096" })
+    public int fileSize;
+    /** Number of commits on master after the first. */
+    @Param({ "200" })
+    public int depth;
+    /** Number of branches forked from master. */
+    @Param({ "4" })
+    public int branches;
+
+    /** Build the repository. */
+    @Setup(Level.Trial)
+    public void create() {
+        _synthetic = new SyntheticRepo(files, fileSize, depth, branches);
+        _repo = _synthetic.repo();
+        _tip = _synthetic.head("master");
+        _branchHead = _synthetic.head("b0");
+    }
+
+    /** Remove the repository. */
+    @TearDown(Level.Trial)
+    public void delete() {
+        _synthetic.delete();
+    }
+
+    /** Add every file when none has changed, as after a fresh commit. */
+    @Benchmark
+    public void addUnchanged() {
+        _repo.add(".");
+    }
+
+    /** Add one changed file. */
+    @Benchmark
+    public void addChanged(ChangedFile changed) {
+        _repo.add(changed.path);
+    }
+
+    /** Commit one staged file. */
+    @Benchmark
+    public void commit(StagedFile staged) {
+        _repo.commit("benchmark commit " + staged.count);
+    }
+
+    /** Print the history of master. */
+    @Benchmark
+    public void log() {
+        _repo.log();
+    }
+
+    /** Print every commit. */
+    @Benchmark
+    public void globalLog() {
+        _repo.logGlobal();
+    }
+
+    /** Find a commit by its whole message. */
+    @Benchmark
+    public void find() {
+        _repo.find(null, "commit " + depth / 2);
+    }
+
+    /** Find commits by part of their message. */
+    @Benchmark
+    public void findSubstring() {
+        _repo.find("--substring", "mit 1");
+    }
+
+    /** Report the status of a clean working directory. */
+    @Benchmark
+    public void status() {
+        _repo.status();
+    }
+
+    /** Switch between master and a branch, alternately. */
+    @Benchmark
+    public void checkout() {
+        _onBranch = !_onBranch;
+        _repo.checkOutCommands(new String[] { _onBranch ? "b0" : "master" });
+    }
+
+    /** Reset master to the head of b0 and back, alternately. */
+    @Benchmark
+    public void reset() {
+        _reset = !_reset;
+        _repo.reset(_reset ? _branchHead : _tip);
+    }
+
+    /** Merge a branch into master, which is reset before each merge. */
+    @Benchmark
+    public void merge(Unmerged unmerged) {
+        _repo.merge("b0");
+    }
+
+    /** A file changed just before each invocation. */
+    @State(Scope.Benchmark)
+    public static class ChangedFile {
+        /** Path of the changed file. */
+        String path;
+        /** Number of files changed so far. */
+        int count;
+
+        /** Change the next file of BENCH's repository. */
+        @Setup(Level.Invocation)
+        public void change(RepoBenchmark bench) {
+            int i = count % bench.files;
+            count += 1;
+            bench._synthetic.write(i);
+            path = bench._synthetic.path(i);
+        }
+    }
+
+    /** A file changed and staged just before each invocation. */
+    @State(Scope.Benchmark)
+    public static class StagedFile {
+        /** Number of files staged so far. */
+        int count;
+
+        /** Change and stage the next file of BENCH's repository. */
+        @Setup(Level.Invocation)
+        public void stage(RepoBenchmark bench) {
+            int i = count % bench.files;
+            count += 1;
+            bench._synthetic.write(i);
+            bench._repo.add(bench._synthetic.path(i));
+        }
+    }
+
+    /** Master reset to its original head just before each invocation, so
+     *  that merging b0 is a true merge. */
+    @State(Scope.Benchmark)
+    public static class Unmerged {
+        /** Reset BENCH's master. */
+        @Setup(Level.Invocation)
+        public void reset(RepoBenchmark bench) {
+            bench._repo.reset(bench._tip);
+        }
+    }
+
+    /** The repository and its working directory. */
+    private SyntheticRepo _synthetic;
+    /** The repository. */
+    private Repo _repo;
+    /** The original head of master. */
+    private String _tip;
+    /** The head of b0, which is not on master. */
+    private String _branchHead;
+    /** True iff b0 is checked out by the checkout benchmark. */
+    private boolean _onBranch;
+    /** True iff master is reset to _branchHead by the reset benchmark. */
+    private boolean _reset;
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Builds repositories of a given shape for the benchmarks.  Because
+ *  Repo locates its repository through the user.dir property when the
+ *  class is first used, a process can hold only one synthetic repository,
+ *  which must be constructed before anything else touches Repo.  JMH runs each
+ *  trial in a fresh JVM, so benchmarks must be run with at least one
+ *  fork. */
+class SyntheticRepo {
+
+    /** Number of directories files are spread over. */
+    static final int DIRECTORIES = 32;
+    /** Length of each line of file contents, including its newline. */
+    static final int LINE_LENGTH = 64;
+
+    /** Create, in a new temporary directory, a repository whose master
+     *  branch holds FILES files of about FILESIZE bytes each, spread over
+     *  DIRECTORIES directories, and has DEPTH commits after the first, each
+     *  changing one file.  BRANCHES further branches, named b0, b1, ...,
+     *  fork from the last of those commits and each change one more file;
+     *  master then changes one more file, so that merging any branch is a
+     *  true merge.  Master is checked out at the end.  Output of gitlet
+     *  commands is discarded from now on. */
+    SyntheticRepo(int files, int fileSize, int depth, int branches) {
+        try {
+            _dir = Files.createTempDirectory("gitlet-bench").toFile();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        System.setProperty("user.dir", _dir.getPath());
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        _fileSize = fileSize;
+        _repo = new Repo();
+
+        _repo.init();
+        for (int i = 0; i < files; i += 1) {
+            write(i);
+        }
+        _repo.add(".");
+        _repo.commit("add " + files + " files");
+        for (int k = 0; k < depth; k += 1) {
+            change(k % files, "commit " + k);
+        }
+        for (int b = 0; b < branches; b += 1) {
+            _repo.createBranch("b" + b);
+            _repo.checkOutCommands(new String[] { "b" + b });
+            change((depth + b) % files, "branch b" + b);
+            _repo.checkOutCommands(new String[] { "master" });
+        }
+        change((depth + branches) % files, "master after branches");
+    }
+
+    /** Return the repository. */
+    Repo repo() {
+        return _repo;
+    }
+
+    /** Return the relative path of the Ith file. */
+    String path(int i) {
+        return "d" + (i % DIRECTORIES) + "/f" + i + ".txt";
+    }
+
+    /** Return the id of the commit at the head of BRANCH. */
+    String head(String branch) {
+        return Branch.read(join(Repo.BRANCHES, branch)).ptr;
+    }
+
+    /** Overwrite the Ith file with new contents, add it and commit it with
+     *  message MSG. */
+    void change(int i, String msg) {
+        write(i);
+        _repo.add(path(i));
+        _repo.commit(msg);
+    }
+
+    /** Overwrite the Ith file with new contents, different each time. */
+    void write(int i) {
+        File file = join(_dir, path(i));
+        file.getParentFile().mkdirs();
+        writeContents(file, String.join("", lines(_fileSize / LINE_LENGTH)));
+    }
+
+    /** Return N pseudo-random lines of LINE_LENGTH characters each,
+     *  different on every call. */
+    List<String> lines(int n) {
+        List<String> result = new ArrayList<>();
+        char[] line = new char[LINE_LENGTH];
+        for (int k = 0; k < Math.max(n, 1); k += 1) {
+            for (int c = 0; c < LINE_LENGTH - 1; c += 1) {
+                line[c] = (char) ('a' + _random.nextInt(26));
+            }
+            line[LINE_LENGTH - 1] = '\n';
+            result.add(new String(line));
+        }
+        return result;
+    }
+
+    /** Delete the repository and its working directory. */
+    void delete() {
+        try (Stream<Path> paths = Files.walk(_dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Approximate size of each file. */
+    private final int _fileSize;
+    /** The working directory. */
+    private final File _dir;
+    /** The repository in _dir. */
+    private final Repo _repo;
+    /** Source of file contents, seeded so runs are repeatable. */
+    private final Random _random = new Random(61);
+}
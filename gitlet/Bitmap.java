@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** An immutable compressed set of non-negative ints, in the style of a
+ *  Roaring bitmap.  The set is divided by the high 16 bits of its members
+ *  into containers, each holding the low 16 bits of the members that share
+ *  a high half.  A container is stored in whichever of three forms is
+ *  smallest: a sorted array of its members, a 65536-bit bitset, or a
+ *  sorted array of runs of consecutive members.  Sets of ancestors in a
+ *  commit graph, which are mostly long runs of positions, need only a few
+ *  bytes per run.
+ *  <p>
+ *  The encoding is the number of containers and then, for each in order
+ *  of high half, the high half, the form, and the form's contents: a
+ *  count and that many members, 1024 longs, or a count and that many
+ *  pairs of run start and run length minus one. */
+class Bitmap {
+
+    /** The forms of container. */
+    static final int ARRAY = 0, BITSET = 1, RUNS = 2;
+    /** Number of longs in a bitset container. */
+    static final int WORDS = 1 << 10;
+    /** Largest number of members held in an array container; beyond this,
+     *  a bitset is smaller. */
+    static final int MAX_ARRAY = 1 << 12;
+    /** The empty set. */
+    static final Bitmap EMPTY = new Bitmap(new char[0], new Container[0]);
+
+    /** Return the set of the members of BITS. */
+    static Bitmap of(BitSet bits) {
+        int n = bits.isEmpty() ? 0 : (bits.length() - 1 >>> 16) + 1;
+        char[] keys = new char[n];
+        Container[] containers = new Container[n];
+        int k = 0;
+        for (int high = 0; high < n; high += 1) {
+            BitSet part = bits.get(high << 16, (int) Math.min(
+                (long) (high + 1) << 16, Integer.MAX_VALUE));
+            if (!part.isEmpty()) {
+                keys[k] = (char) high;
+                containers[k] = Container.of(Arrays.copyOf(part.toLongArray(),
+                                                           WORDS));
+                k += 1;
+            }
+        }
+        return new Bitmap(Arrays.copyOf(keys, k),
+                          Arrays.copyOf(containers, k));
+    }
+
+    /** Return true iff X is a member. */
+    boolean contains(int x) {
+        int k = Arrays.binarySearch(_keys, (char) (x >>> 16));
+        return x >= 0 && k >= 0 && _containers[k].contains((char) x);
+    }
+
+    /** Return the union of this set and OTHER. */
+    Bitmap or(Bitmap other) {
+        char[] keys = new char[_keys.length + other._keys.length];
+        Container[] containers = new Container[keys.length];
+        int i = 0, j = 0, k = 0;
+        while (i < _keys.length || j < other._keys.length) {
+            int c = i == _keys.length ? 1 : j == other._keys.length ? -1
+                : Character.compare(_keys[i], other._keys[j]);
+            if (c < 0) {
+                keys[k] = _keys[i];
+                containers[k] = _containers[i];
+                i += 1;
+            } else if (c > 0) {
+                keys[k] = other._keys[j];
+                containers[k] = other._containers[j];
+                j += 1;
+            } else {
+                long[] words = _containers[i].words();
+                long[] others = other._containers[j].words();
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] |= others[w];
+                }
+                keys[k] = _keys[i];
+                containers[k] = Container.of(words);
+                i += 1;
+                j += 1;
+            }
+            k += 1;
+        }
+        return new Bitmap(Arrays.copyOf(keys, k),
+                          Arrays.copyOf(containers, k));
+    }
+
+    /** Write this set to OUT in the bitmap encoding. */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeInt(_keys.length);
+        for (int k = 0; k < _keys.length; k += 1) {
+            out.writeChar(_keys[k]);
+            _containers[k].encode(out);
+        }
+    }
+
+    /** Return the set encoded at the position of IN, advancing IN past
+     *  it.  Throws IllegalArgumentException if the encoding is bad. */
+    static Bitmap decode(ByteBuffer in) {
+        try {
+            int n = in.getInt();
+            char[] keys = new char[n];
+            Container[] containers = new Container[n];
+            for (int k = 0; k < n; k += 1) {
+                keys[k] = in.getChar();
+                containers[k] = Container.decode(in);
+            }
+            return new Bitmap(keys, containers);
+        } catch (BufferUnderflowException | NegativeArraySizeException excp) {
+            throw new IllegalArgumentException("truncated bitmap");
+        }
+    }
+
+    /** A set whose containers CONTAINERS hold the members with high halves
+     *  KEYS, which are in increasing order. */
+    private Bitmap(char[] keys, Container[] containers) {
+        _keys = keys;
+        _containers = containers;
+    }
+
+    /** The low 16 bits of the members sharing one high half. */
+    private abstract static class Container {
+
+        /** Return a container of the members of bitset WORDS, of WORDS
+         *  longs, in whichever form is smallest. */
+        static Container of(long[] words) {
+            int count = 0, runs = 0;
+            long prev = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+                runs += Long.bitCount(word & ~(word << 1 | prev >>> 63));
+                prev = word;
+            }
+            if (4 * runs <= Math.min(2 * count, 8 * WORDS)) {
+                return new Runs(words, runs);
+            } else if (count <= MAX_ARRAY) {
+                return new Array(words, count);
+            } else {
+                return new Bitset(words);
+            }
+        }
+
+        /** Return the container encoded at the position of IN. */
+        static Container decode(ByteBuffer in) {
+            int form = in.get();
+            switch (form) {
+            case ARRAY:
+                char[] values = new char[in.getChar() + 1];
+                in.asCharBuffer().get(values);
+                in.position(in.position() + 2 * values.length);
+                return new Array(values);
+            case BITSET:
+                long[] words = new long[WORDS];
+                in.asLongBuffer().get(words);
+                in.position(in.position() + 8 * WORDS);
+                return new Bitset(words);
+            case RUNS:
+                char[] runs = new char[2 * (in.getChar() + 1)];
+                in.asCharBuffer().get(runs);
+                in.position(in.position() + 2 * runs.length);
+                return new Runs(runs);
+            default:
+                throw new IllegalArgumentException("bad container " + form);
+            }
+        }
+
+        /** Return true iff LOW is a member. */
+        abstract boolean contains(char low);
+
+        /** Return a new bitset of WORDS longs holding the members. */
+        abstract long[] words();
+
+        /** Write this container to OUT: its form and then its contents.
+         *  Counts are written less one, as a container is never empty. */
+        abstract void encode(DataOutputStream out) throws IOException;
+    }
+
+    /** A container holding its members in a sorted array. */
+    private static class Array extends Container {
+        /** A container of the COUNT members of bitset WORDS. */
+        Array(long[] words, int count) {
+            _values = new char[count];
+            int k = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    _values[k] = (char) (w * 64
+                                         + Long.numberOfTrailingZeros(word));
+                    k += 1;
+                }
+            }
+        }
+
+        /** A container of the members VALUES, in increasing order. */
+        Array(char[] values) {
+            _values = values;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(_values, low) >= 0;
+        }
+
+        @Override
+        long[] words() {
+            long[] result = new long[WORDS];
+            for (char v : _values) {
+                result[v >>> 6] |= 1L << v;
+            }
+            return result;
+        }
+
+        @Override
+        void encode(DataOutputStream out) throws IOException {
+            out.writeByte(ARRAY);
+            out.writeChar(_values.length - 1);
+            for (char v : _values) {
+                out.writeChar(v);
+            }
+        }
+
+        /** The members in increasing order. */
+        private final char[] _values;
+    }
+
+    /** A container holding its members in a bitset. */
+    private static class Bitset extends Container {
+        /** A container of the members of bitset WORDS. */
+        Bitset(long[] words) {
+            _words = words;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (_words[low >>> 6] & 1L << low) != 0;
+        }
+
+        @Override
+        long[] words() {
+            return _words.clone();
+        }
+
+        @Override
+        void encode(DataOutputStream out) throws IOException {
+            out.writeByte(BITSET);
+            for (long word : _words) {
+                out.writeLong(word);
+            }
+        }
+
+        /** The members as a bitset. */
+        private final long[] _words;
+    }
+
+    /** A container holding its members as runs of consecutive values. */
+    private static class Runs extends Container {
+        /** A container of the members of bitset WORDS, which form RUNS
+         *  runs. */
+        Runs(long[] words, int runs) {
+            _runs = new char[2 * runs];
+            BitSet bits = BitSet.valueOf(words);
+            int k = 0, start = bits.nextSetBit(0);
+            while (start >= 0) {
+                int end = bits.nextClearBit(start);
+                _runs[k] = (char) start;
+                _runs[k + 1] = (char) (end - 1 - start);
+                k += 2;
+                start = bits.nextSetBit(end);
+            }
+        }
+
+        /** A container of the runs RUNS: pairs of starts, in increasing
+         *  order, and lengths less one. */
+        Runs(char[] runs) {
+            _runs = runs;
+        }
+
+        @Override
+        boolean contains(char low) {
+            int lo = 0, hi = _runs.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int start = _runs[2 * mid];
+                if (low < start) {
+                    hi = mid - 1;
+                } else if (low > start + _runs[2 * mid + 1]) {
+                    lo = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        long[] words() {
+            BitSet bits = new BitSet(WORDS * 64);
+            for (int k = 0; k < _runs.length; k += 2) {
+                bits.set(_runs[k], _runs[k] + _runs[k + 1] + 1);
+            }
+            return Arrays.copyOf(bits.toLongArray(), WORDS);
+        }
+
+        @Override
+        void encode(DataOutputStream out) throws IOException {
+            out.writeByte(RUNS);
+            out.writeChar(_runs.length / 2 - 1);
+            for (char c : _runs) {
+                out.writeChar(c);
+            }
+        }
+
+        /** Starts and lengths less one of the runs, alternately. */
+        private final char[] _runs;
+    }
+
+    /** High halves of the members, in increasing order. */
+    private final char[] _keys;
+    /** The containers for each of _keys. */
+    private final Container[] _containers;
+}
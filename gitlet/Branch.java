@@ -1,9 +1,24 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static gitlet.Utils.*;
 
 public class Branch implements Serializable {
 
+    /** Matches the serialized form written before the binary format, so
+     *  unmigrated repositories stay readable. */
+    private static final long serialVersionUID = -2431931937749555776L;
+
+    /** Marks the binary branch encoding: "GLB" and a version byte. */
+    static final int MAGIC = 0x474c4201;
+
     public String name;
     public String ptr;
 
@@ -27,4 +42,49 @@ public class Branch implements Serializable {
     public void advancePtr(String commitAddress) {
         this.ptr = commitAddress;
     }
+
+    /** Return this branch as MAGIC followed by its name and pointer as
+     *  length-prefixed strings. */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            writeString(out, name);
+            writeString(out, ptr);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding branch.");
+        }
+    }
+
+    /** Return the branch encoded in BYTES by encode(). */
+    public static Branch decode(byte[] bytes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not a branch");
+            }
+            return new Branch(readString(in), readString(in));
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated branch");
+        }
+    }
+
+    /** Return the branch stored in FILE, in either the binary format or,
+     *  for repositories that have not been migrated, as a serialized
+     *  Branch object. */
+    public static Branch read(File file) {
+        byte[] bytes = readContents(file);
+        if (isSerialized(bytes)) {
+            return readObject(file, Branch.class);
+        }
+        return decode(bytes);
+    }
+
+    /** Store this branch in FILE. */
+    public void write(File file) {
+        writeContents(file, encode());
+    }
 }
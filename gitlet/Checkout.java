@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Updates the working directory from one snapshot to another, as for
+ *  switching branches or resetting.  Files tracked only by the old
+ *  snapshot, as found by comparing the two snapshots' trees, are deleted,
+ *  along with directories this leaves empty.  Every file of the new
+ *  snapshot is written unless the index can vouch that the working copy
+ *  already holds its blob, so local edits and deletions are undone as
+ *  before.  Files are written in parallel, each copied straight from the
+ *  object store with FileChannel.transferTo, and recorded in the index
+ *  afterwards. */
+class Checkout {
+
+    /** A checkout into working directory DIR, reading blobs from OBJECTS
+     *  and keeping INDEX's cache of working files up to date. */
+    Checkout(File dir, ObjectStore objects, Index index) {
+        _dir = dir;
+        _objects = objects;
+        _index = index;
+    }
+
+    /** Change the working files into those of snapshot TO, which maps
+     *  file names to blob ids.  CHANGES maps the files that differ between
+     *  the old snapshot and TO to their blob ids in TO, or to null for files
+     *  to delete.  Returns the number of files written.  Does not save the
+     *  index. */
+    int run(Map<String, String> to, Map<String, String> changes) {
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                delete(entry.getKey());
+                _index.forget(entry.getKey());
+            }
+        }
+
+        List<String> files = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        for (Map.Entry<String, String> entry : to.entrySet()) {
+            String file = entry.getKey(), blob = entry.getValue();
+            if (!blob.equals(_index.cachedBlob(file, join(_dir, file)))) {
+                files.add(file);
+                blobs.add(blob);
+            }
+        }
+
+        parallelFor(files.size(), k -> {
+            File dest = join(_dir, files.get(k));
+            dest.getParentFile().mkdirs();
+            _objects.copyTo(blobs.get(k), dest);
+        });
+        for (int k = 0; k < files.size(); k += 1) {
+            _index.record(files.get(k), join(_dir, files.get(k)), blobs.get(k));
+        }
+        return files.size();
+    }
+
+    /** Delete the working file at PATH, and then any of its parent
+     *  directories left empty. */
+    void delete(String path) {
+        File file = join(_dir, path);
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(_dir);
+             dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    /** The working directory. */
+    private final File _dir;
+    /** Source of file contents. */
+    private final ObjectStore _objects;
+    /** Cache of working file metadata. */
+    private final Index _index;
+}
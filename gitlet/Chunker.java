@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+
+/** Content-defined chunking in the style of FastCDC.  A rolling "gear" hash
+ *  over the last 64 bytes decides where chunks end, so an edit only moves
+ *  the boundaries of the chunks around it: the rest of a large file splits
+ *  into the same chunks as before and is stored only once.
+ *  Chunks are between MIN_SIZE and MAX_SIZE bytes, averaging about
+ *  AVG_SIZE.  Below AVG_SIZE a stricter mask is used and above it a looser
+ *  one ("normalized chunking"), which narrows the spread of chunk sizes.
+ *  A Chunker is fed a stream's bytes in order and reports where each chunk
+ *  ends, so a file is chunked as it is read. */
+class Chunker {
+
+    /** Smallest chunk produced, except for the last one. */
+    static final int MIN_SIZE = 16 * 1024;
+    /** Target chunk size. */
+    static final int AVG_SIZE = 64 * 1024;
+    /** Largest chunk produced. */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** Hash bits that must be zero to cut a chunk shorter than AVG_SIZE. */
+    private static final long MASK_S = 0xffffc00000000000L;
+    /** Hash bits that must be zero to cut a chunk longer than AVG_SIZE. */
+    private static final long MASK_L = 0xfffc000000000000L;
+
+    /** Random values added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x676974c3a574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Return how many of the remaining bytes of DATA, from its position,
+     *  complete the current chunk, after which a new chunk starts, or -1
+     *  if the current chunk does not end within them, in which case they
+     *  all belong to it.  DATA's position is not changed.  The bytes of a
+     *  stream may be passed in pieces of any size; chunks are cut in the
+     *  same places, and there is no limit on the stream's length. */
+    int scan(ByteBuffer data) {
+        int start = data.position(), limit = data.limit();
+        int p = start;
+        if (_length < MIN_SIZE) {
+            // no chunk ends within its first MIN_SIZE bytes
+            int skip = Math.min(limit - p, MIN_SIZE - _length);
+            _length += skip;
+            p += skip;
+        }
+        for (; p < limit; p += 1) {
+            _length += 1;
+            _hash = (_hash << 1) + GEAR[data.get(p) & 0xff];
+            long mask = _length <= AVG_SIZE ? MASK_S : MASK_L;
+            if ((_hash & mask) == 0 || _length == MAX_SIZE) {
+                _length = 0;
+                _hash = 0;
+                return p + 1 - start;
+            }
+        }
+        return -1;
+    }
+
+    /** Number of bytes of the current chunk scanned so far. */
+    private int _length;
+    /** Rolling hash of the current chunk's bytes after its first
+     *  MIN_SIZE. */
+    private long _hash;
+}
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A method of compressing stored objects and commits.  Compressed data
+ *  is stored behind a header: MAGIC, the id of the codec as a byte, and
+ *  the length of the uncompressed data as a long, so that any registered
+ *  codec can read what any other wrote, whatever the repository is
+ *  currently configured to use.  Codecs are registered by name, for
+ *  configuration, and by id, for reading; DEFLATE is built in, and others
+ *  may be added with register. */
+abstract class Codec {
+
+    /** Marks compressed data: "GLZ" and a version byte. */
+    static final int MAGIC = 0x474c5a01;
+    /** Size in bytes of the header of compressed data. */
+    static final int HEADER_BYTES = 4 + 1 + 8;
+
+    /** Return the id of this codec, between 1 and 255, which is stored in
+     *  the header of the data it compresses. */
+    abstract int id();
+
+    /** Return the name by which this codec is configured. */
+    abstract String name();
+
+    /** Return DATA compressed, at LEVEL if this codec has levels, where -1
+     *  asks for its default. */
+    abstract byte[] compress(byte[] data, int level);
+
+    /** Fill OUT with the data compressed in the remaining bytes of IN.
+     *  Throws IllegalArgumentException if IN is not valid. */
+    abstract void decompress(ByteBuffer in, byte[] out);
+
+    /** Return DATA compressed at LEVEL, behind a header, or null if that
+     *  would not be smaller than DATA itself. */
+    byte[] encode(byte[] data, int level) {
+        byte[] compressed = compress(data, level);
+        if (HEADER_BYTES + compressed.length >= data.length) {
+            return null;
+        }
+        return ByteBuffer.allocate(HEADER_BYTES + compressed.length)
+            .putInt(MAGIC).put((byte) id()).putLong(data.length)
+            .put(compressed).array();
+    }
+
+    /** Return true iff the remaining bytes of STORED start with a header
+     *  of compressed data. */
+    static boolean isEncoded(ByteBuffer stored) {
+        return stored.remaining() >= HEADER_BYTES
+            && stored.getInt(stored.position()) == MAGIC;
+    }
+
+    /** Return the uncompressed length of the data encoded in the remaining
+     *  bytes of STORED, reading only its header. */
+    static long decodedLength(ByteBuffer stored) {
+        if (!isEncoded(stored)) {
+            throw new IllegalArgumentException("not compressed data");
+        }
+        return stored.getLong(stored.position() + 5);
+    }
+
+    /** Return a read-only buffer of the data encoded in the remaining bytes
+     *  of STORED by encode, with whichever codec encoded it.  Throws
+     *  IllegalArgumentException if STORED is not valid or its codec is not
+     *  registered. */
+    static ByteBuffer decode(ByteBuffer stored) {
+        try {
+            ByteBuffer in = stored.duplicate();
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not compressed data");
+            }
+            Codec codec = forId(in.get() & 0xff);
+            long length = in.getLong();
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("bad length " + length);
+            }
+            byte[] result = new byte[(int) length];
+            codec.decompress(in, result);
+            return ByteBuffer.wrap(result).asReadOnlyBuffer();
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated compressed data");
+        }
+    }
+
+    /** Make CODEC available by its name and id. */
+    static synchronized void register(Codec codec) {
+        if (codec.id() < 1 || codec.id() > 255
+            || BY_ID.containsKey(codec.id())
+            || BY_NAME.containsKey(codec.name())) {
+            throw new IllegalArgumentException("cannot register codec "
+                                               + codec.name());
+        }
+        BY_ID.put(codec.id(), codec);
+        BY_NAME.put(codec.name(), codec);
+    }
+
+    /** Return the codec named NAME, or null if there is none. */
+    static synchronized Codec forName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /** Return the codec whose id is ID.  Throws IllegalArgumentException if
+     *  there is none. */
+    static synchronized Codec forId(int id) {
+        Codec result = BY_ID.get(id);
+        if (result == null) {
+            throw new IllegalArgumentException("unknown codec " + id);
+        }
+        return result;
+    }
+
+    /** Compression with zlib's deflate, through Deflater and Inflater.
+     *  Levels run from 1 (fastest) to 9 (smallest). */
+    static final Codec DEFLATE = new Codec() {
+        @Override
+        int id() {
+            return 1;
+        }
+
+        @Override
+        String name() {
+            return "deflate";
+        }
+
+        @Override
+        byte[] compress(byte[] data, int level) {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        void decompress(ByteBuffer in, byte[] out) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(in);
+                int n = 0;
+                while (n < out.length) {
+                    int k = inflater.inflate(out, n, out.length - n);
+                    if (k == 0 && (inflater.finished()
+                                   || inflater.needsInput()
+                                   || inflater.needsDictionary())) {
+                        throw new IllegalArgumentException(
+                            "truncated compressed data");
+                    }
+                    n += k;
+                }
+            } catch (DataFormatException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    /** Size of the buffer into which DEFLATE compresses. */
+    private static final int BUFFER_SIZE = 8192;
+    /** Registered codecs by id. */
+    private static final HashMap<Integer, Codec> BY_ID = new HashMap<>();
+    /** Registered codecs by name. */
+    private static final HashMap<String, Codec> BY_NAME = new HashMap<>();
+
+    static {
+        register(DEFLATE);
+    }
+}
@@ -1,12 +1,37 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.READ;
 
 public class Commit implements Serializable {
 
+    /** Matches the serialized form written before the binary format, so
+     *  unmigrated repositories stay readable. */
+    private static final long serialVersionUID = -3033745644224069880L;
+
+    /** Marks the binary commit encoding that lists every blob: "GLC" and
+     *  a version byte. */
+    static final int MAGIC = 0x474c4301;
+    /** Marks the binary commit encoding that refers to a root tree. */
+    static final int TREE_MAGIC = 0x474c4302;
+
+    /** Number of bytes read from the start of a commit file by
+     *  readHeader, enough for the header of almost any commit. */
+    static final int HEADER_READ_SIZE = 4096;
+
     static SimpleDateFormat timeFormatter = new SimpleDateFormat(
             "EEE MMM d HH:mm:ss yyyy Z");
     public String msg;
@@ -14,6 +39,10 @@ public class Commit implements Serializable {
     public String parent;
     public String mergeParent;
     public HashMap<String, String> blobs = new HashMap<>();
+    /** Id of the root Tree of this commit's snapshot, or null for commits
+     *  made before snapshots were stored as trees, which list their blobs
+     *  directly. */
+    public String tree;
 
     public Commit(String s) {
         this.msg = s;
@@ -40,5 +69,130 @@ public class Commit implements Serializable {
         this.mergeParent = mergeParent;
     }
 
+    /** Return this commit in the binary commit format: TREE_MAGIC, then
+     *  the message, time, parent and merge parent as length-prefixed
+     *  strings, then the 20-byte id of the root tree.  Commits without a
+     *  tree are written as before: MAGIC, the same four strings, then the
+     *  number of blobs followed by (file name, 20-byte blob id) pairs sorted
+     *  by file name.  A commit's id is the SHA-1 of this encoding. */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(tree == null ? MAGIC : TREE_MAGIC);
+            writeString(out, msg);
+            writeString(out, time);
+            writeString(out, parent);
+            writeString(out, mergeParent);
+            if (tree != null) {
+                out.write(fromHex(tree));
+                out.close();
+                return bytes.toByteArray();
+            }
+            out.writeInt(blobs.size());
+            for (java.util.Map.Entry<String, String> entry
+                     : new TreeMap<>(blobs).entrySet()) {
+                writeString(out, entry.getKey());
+                out.write(fromHex(entry.getValue()));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+    }
+
+    /** Return the commit encoded in BYTES by encode().  For a commit with
+     *  a tree, the blobs are left empty; they are read from the tree by
+     *  the caller. */
+    public static Commit decode(byte[] bytes) {
+        try {
+            return decode(ByteBuffer.wrap(bytes), false);
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated commit");
+        }
+    }
+
+    /** Return the commit encoded by encode() at the start of IN.  If
+     *  HEADERONLY, stop after the message, time, parents and tree, leaving
+     *  the blobs of commits without trees empty. */
+    private static Commit decode(ByteBuffer in, boolean headerOnly) {
+        int magic = in.getInt();
+        if (magic != MAGIC && magic != TREE_MAGIC) {
+            throw new IllegalArgumentException("not a commit");
+        }
+        Commit result = new Commit();
+        result.msg = readString(in);
+        result.time = readString(in);
+        result.parent = readString(in);
+        result.mergeParent = readString(in);
+        if (magic == TREE_MAGIC) {
+            byte[] tree = new byte[UID_LENGTH / 2];
+            in.get(tree);
+            result.tree = toHex(tree);
+            return result;
+        }
+        if (headerOnly) {
+            return result;
+        }
+        int n = in.getInt();
+        result.blobs = new HashMap<>(Math.max(16, 2 * n));
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < n; i += 1) {
+            String name = readString(in);
+            in.get(id);
+            result.blobs.put(name, toHex(id));
+        }
+        return result;
+    }
+
+    /** Return the commit stored in FILE, which may be in the binary commit
+     *  format, compressed by a Codec or not, or, for repositories that have
+     *  not been migrated, a serialized Commit object. */
+    public static Commit read(File file) {
+        byte[] bytes = readContents(file);
+        if (isSerialized(bytes)) {
+            return readObject(file, Commit.class);
+        }
+        ByteBuffer stored = ByteBuffer.wrap(bytes);
+        if (Codec.isEncoded(stored)) {
+            ByteBuffer plain = Codec.decode(stored);
+            bytes = new byte[plain.remaining()];
+            plain.get(bytes);
+        }
+        return decode(bytes);
+    }
+
+    /** Return the commit stored in FILE with only its message, time,
+     *  parents and tree filled in.  Only the start of the file is read,
+     *  unless the commit is serialized or its header is unusually long, so
+     *  the cost does not depend on the number of files in the commit. */
+    public static Commit readHeader(File file) {
+        ByteBuffer start = ByteBuffer.allocate(HEADER_READ_SIZE);
+        try (FileChannel in = FileChannel.open(file.toPath(), READ)) {
+            while (start.hasRemaining() && in.read(start) >= 0) {
+                continue;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        start.flip();
+        if (isSerialized(start.array())) {
+            return readObject(file, Commit.class);
+        } else if (Codec.isEncoded(start)) {
+            return decode(Codec.decode(ByteBuffer.wrap(readContents(file))),
+                          true);
+        }
+        try {
+            return decode(start, true);
+        } catch (BufferUnderflowException excp) {
+            return decode(ByteBuffer.wrap(readContents(file)), true);
+        }
+    }
+
+    /** An empty commit, filled in by decode. */
+    private Commit() {
+    }
+
     // todo: add more constructors as needed
-}
\ No newline at end of file
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** The reachability bitmaps of selected commits of a CommitGraph: for each
+ *  such commit, the set of graph positions of the commit and all its
+ *  ancestors.  The file holds a magic number and then one record per
+ *  commit, appended as bitmaps are computed: the commit's position, its
+ *  id, the length of its bitmap's encoding and the encoding (see Bitmap).
+ *  Records are read only as they are asked for.  The ids must match the
+ *  graph; if any does not, as when the graph has been rebuilt with
+ *  different positions, the whole file is discarded. */
+class CommitBitmaps {
+
+    /** Magic number and version at the start of the file. */
+    static final int MAGIC = 0x47434201;
+    /** Size in bytes of the file header. */
+    static final int HEADER_BYTES = 4;
+    /** Size in bytes of the fixed part of a record: position, id and
+     *  length. */
+    static final int RECORD_HEADER_BYTES = 4 + UID_LENGTH / 2 + 4;
+
+    /** The bitmaps stored in FILE for the commits of GRAPH. */
+    CommitBitmaps(File file, CommitGraph graph) {
+        _file = file;
+        _graph = graph;
+    }
+
+    /** Return true iff a bitmap is stored for the commit at POS. */
+    boolean contains(int pos) {
+        load();
+        return _offsets.containsKey(pos);
+    }
+
+    /** Return the bitmap stored for the commit at POS, or null if there is
+     *  none. */
+    Bitmap get(int pos) {
+        load();
+        Bitmap result = _decoded.get(pos);
+        Integer offset = _offsets.get(pos);
+        if (result == null && offset != null) {
+            result = Bitmap.decode(_data.duplicate().position(offset));
+            _decoded.put(pos, result);
+        }
+        return result;
+    }
+
+    /** Store BITMAP for the commit at POS, whose id is ID. */
+    void add(int pos, String id, Bitmap bitmap) {
+        load();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            bitmap.encode(out);
+            out.close();
+            ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER_BYTES
+                                                 + bytes.size());
+            rec.putInt(pos).put(fromHex(id)).putInt(bytes.size())
+                .put(bytes.toByteArray()).flip();
+            try (FileChannel file = FileChannel.open(_file.toPath(), WRITE,
+                                                     CREATE, APPEND)) {
+                if (file.size() == 0) {
+                    file.write(ByteBuffer.allocate(HEADER_BYTES)
+                               .putInt(0, MAGIC));
+                }
+                while (rec.hasRemaining()) {
+                    file.write(rec);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not update commit bitmaps: %s",
+                        excp.getMessage());
+        }
+        _offsets.put(pos, -1);
+        _decoded.put(pos, bitmap);
+    }
+
+    /** Discard all bitmaps. */
+    void clear() {
+        _file.delete();
+        _data = null;
+    }
+
+    /** Find the records of the file, unless this has already been done.
+     *  A truncated final record, left by an interrupted append, is
+     *  ignored. */
+    private void load() {
+        if (_data != null) {
+            return;
+        }
+        _offsets = new HashMap<>();
+        _decoded = new HashMap<>();
+        _data = ByteBuffer.allocate(0);
+        if (!_file.isFile()) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(_file.toPath(), READ)) {
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw error("could not read commit bitmaps: %s",
+                        excp.getMessage());
+        }
+        if (_data.limit() < HEADER_BYTES || _data.getInt(0) != MAGIC) {
+            clear();
+            load();
+            return;
+        }
+        byte[] id = new byte[UID_LENGTH / 2];
+        int p = HEADER_BYTES;
+        while (p + RECORD_HEADER_BYTES <= _data.limit()) {
+            int pos = _data.getInt(p);
+            int length = _data.getInt(p + RECORD_HEADER_BYTES - 4);
+            if (length < 0 || p + RECORD_HEADER_BYTES + length
+                > _data.limit()) {
+                break;
+            }
+            _data.get(p + 4, id);
+            if (pos < 0 || pos >= _graph.size()
+                || !_graph.id(pos).equals(toHex(id))) {
+                clear();
+                load();
+                return;
+            }
+            _offsets.put(pos, p + RECORD_HEADER_BYTES);
+            p += RECORD_HEADER_BYTES + length;
+        }
+    }
+
+    /** The bitmap file. */
+    private final File _file;
+    /** The graph whose positions the bitmaps hold. */
+    private final CommitGraph _graph;
+    /** The contents of the file, or null if not yet read. */
+    private ByteBuffer _data;
+    /** Maps positions of commits to the offsets in _data of their
+     *  bitmaps, or to -1 for bitmaps added since the file was read. */
+    private HashMap<Integer, Integer> _offsets;
+    /** Bitmaps decoded or added so far, by position. */
+    private HashMap<Integer, Bitmap> _decoded;
+}
@@ -0,0 +1,419 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A cache of the shape of the commit history, so that history walks and
+ *  ancestry checks need not read commit objects.  Commits are numbered in
+ *  the order they were added, which puts every commit after its parents.
+ *  For each commit the graph file holds a fixed-size record: the commit's
+ *  id, the positions of its parent and merge parent (-1 if none), its
+ *  generation number (1 for a root, otherwise one more than the largest
+ *  generation of its parents) and its time in seconds since the epoch.
+ *  Records are only ever appended.  Commits missing from the graph, for
+ *  example in repositories written before it existed, are added the first
+ *  time they are looked up.  A parent that gc has deleted, which can only
+ *  be one unreachable from every branch, is recorded as missing.
+ *  <p>
+ *  Merge commits, and every BITMAP_INTERVAL-th commit along a chain of
+ *  first parents, also get a reachability bitmap (see CommitBitmaps),
+ *  computed when they are added from the bitmaps of their nearest
+ *  ancestors that have one.  Ancestry checks walk from a commit only as
+ *  far as the nearest bitmaps, which are then looked up, so they take time
+ *  bounded by BITMAP_INTERVAL rather than by the length of the history. */
+class CommitGraph {
+
+    /** Magic number and version at the start of the graph file. */
+    static final int MAGIC = 0x47434701;
+    /** Size in bytes of the file header. */
+    static final int HEADER_BYTES = 4;
+    /** Size in bytes of a record: id, parent, merge parent, generation,
+     *  time. */
+    static final int RECORD_BYTES = UID_LENGTH / 2 + 4 + 4 + 4 + 8;
+    /** Position used for a missing parent. */
+    static final int NONE = -1;
+    /** Largest number of consecutive first parents without a bitmap. */
+    static final int BITMAP_INTERVAL = 64;
+
+    /** Walk flags used by mergeBases. */
+    private static final int PARENT1 = 1, PARENT2 = 2, STALE = 4, RESULT = 8;
+
+    /** The graph stored in FILE, with bitmaps stored in BITMAPS,
+     *  describing the commits in directory COMMITS. */
+    CommitGraph(File file, File bitmaps, File commits) {
+        _file = file;
+        _bitmaps = new CommitBitmaps(bitmaps, this);
+        _commits = commits;
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        load();
+        return _count;
+    }
+
+    /** Return the position of commit ID, adding it and any of its
+     *  ancestors that are missing. */
+    int position(String id) {
+        load();
+        Integer pos = _positions.get(id);
+        if (pos != null) {
+            return pos;
+        }
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String cur = todo.peek();
+            if (_positions.containsKey(cur)) {
+                todo.pop();
+                continue;
+            }
+            Commit commit = Commit.readHeader(join(_commits, cur));
+            boolean ready = true;
+            for (String p : new String[] { commit.parent, commit.mergeParent }) {
+                if (p != null && !_positions.containsKey(p)
+                    && stored(p)) {
+                    todo.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                todo.pop();
+                add(cur, commit);
+            }
+        }
+        return _positions.get(id);
+    }
+
+    /** Return true iff commit ID is in the graph, without adding it. */
+    boolean contains(String id) {
+        load();
+        return _positions.containsKey(id);
+    }
+
+    /** Record COMMIT, whose id is ID, and return its position, first
+     *  adding any of its parents that are missing, as they may be if the
+     *  graph was last updated by an interrupted command.  Does nothing but
+     *  return the position if ID is already present. */
+    int add(String id, Commit commit) {
+        load();
+        Integer old = _positions.get(id);
+        if (old != null) {
+            return old;
+        }
+        int parent = parentPosition(commit.parent);
+        int merge = parentPosition(commit.mergeParent);
+        int gen = 1;
+        if (parent != NONE) {
+            gen = Math.max(gen, generation(parent) + 1);
+        }
+        if (merge != NONE) {
+            gen = Math.max(gen, generation(merge) + 1);
+        }
+
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_BYTES);
+        rec.put(fromHex(id)).putInt(parent).putInt(merge).putInt(gen)
+            .putLong(seconds(commit.time));
+        rec.flip();
+        try (FileChannel out = FileChannel.open(_file.toPath(), WRITE,
+                                                CREATE, APPEND)) {
+            if (out.size() == 0) {
+                out.write(ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC));
+            }
+            out.write(rec.duplicate());
+        } catch (IOException excp) {
+            throw error("could not update commit graph: %s", excp.getMessage());
+        }
+        append(rec);
+        int pos = _count - 1;
+        _positions.put(id, pos);
+        if (merge != NONE || farFromBitmap(pos)) {
+            _bitmaps.add(pos, id, ancestors(pos));
+        }
+        return pos;
+    }
+
+    /** Return the position of parent ID, adding it if missing, or NONE
+     *  if ID is null or has been deleted. */
+    private int parentPosition(String id) {
+        if (id == null || !_positions.containsKey(id) && !stored(id)) {
+            return NONE;
+        }
+        return position(id);
+    }
+
+    /** Return true iff commit ID has not been deleted. */
+    private boolean stored(String id) {
+        return join(_commits, id).isFile();
+    }
+
+    /** Return true iff the commit at A is the commit at B or one of its
+     *  ancestors.  Commits with generations no greater than A's, which
+     *  cannot have A as an ancestor, are not walked past, and neither are
+     *  commits with bitmaps. */
+    boolean isAncestor(int a, int b) {
+        load();
+        int gen = generation(a);
+        BitSet seen = new BitSet(_count);
+        ArrayDeque<Integer> todo = new ArrayDeque<>();
+        todo.push(b);
+        while (!todo.isEmpty()) {
+            int c = todo.pop();
+            if (c == a) {
+                return true;
+            } else if (seen.get(c) || generation(c) <= gen) {
+                continue;
+            }
+            seen.set(c);
+            Bitmap reachable = _bitmaps.get(c);
+            if (reachable != null) {
+                if (reachable.contains(a)) {
+                    return true;
+                }
+                continue;
+            }
+            for (int p : new int[] { parent(c), mergeParent(c) }) {
+                if (p != NONE) {
+                    todo.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the positions of the commit at POS and all its ancestors.
+     *  The history is walked only down to the nearest commits with
+     *  bitmaps, whose bitmaps are merged into the result. */
+    Bitmap ancestors(int pos) {
+        load();
+        Bitmap result = Bitmap.EMPTY;
+        BitSet walked = new BitSet(_count);
+        ArrayDeque<Integer> todo = new ArrayDeque<>();
+        todo.push(pos);
+        while (!todo.isEmpty()) {
+            int c = todo.pop();
+            if (walked.get(c) || result.contains(c)) {
+                continue;
+            }
+            Bitmap reachable = _bitmaps.get(c);
+            if (reachable != null) {
+                result = result.or(reachable);
+                continue;
+            }
+            walked.set(c);
+            for (int p : new int[] { parent(c), mergeParent(c) }) {
+                if (p != NONE) {
+                    todo.push(p);
+                }
+            }
+        }
+        return result.or(Bitmap.of(walked));
+    }
+
+    /** Return true iff the commit at POS has at least BITMAP_INTERVAL - 1
+     *  first-parent ancestors, none of which has a bitmap. */
+    private boolean farFromBitmap(int pos) {
+        int c = pos;
+        for (int d = 1; d < BITMAP_INTERVAL; d += 1) {
+            c = parent(c);
+            if (c == NONE || _bitmaps.contains(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Discard the graph and build it again from the commits directory,
+     *  as after commits have been deleted. */
+    void rebuild() {
+        _file.delete();
+        _data = null;
+        load();
+    }
+
+    /** Return the id of the commit at POS. */
+    String id(int pos) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        _data.get(record(pos), id);
+        return toHex(id);
+    }
+
+    /** Return the position of the parent of the commit at POS, or NONE. */
+    int parent(int pos) {
+        return _data.getInt(record(pos) + UID_LENGTH / 2);
+    }
+
+    /** Return the position of the merge parent of the commit at POS, or
+     *  NONE. */
+    int mergeParent(int pos) {
+        return _data.getInt(record(pos) + UID_LENGTH / 2 + 4);
+    }
+
+    /** Return the generation number of the commit at POS. */
+    int generation(int pos) {
+        return _data.getInt(record(pos) + UID_LENGTH / 2 + 8);
+    }
+
+    /** Return the time of the commit at POS, in seconds since the epoch. */
+    long time(int pos) {
+        return _data.getLong(record(pos) + UID_LENGTH / 2 + 12);
+    }
+
+    /** Return the positions of the best common ancestors of the commits at
+     *  A and B: the common ancestors that are not ancestors of any other
+     *  common ancestor.  There is usually one, but criss-cross merges can
+     *  leave several.  They are ordered from most to least recent.
+     *  <p>
+     *  Both tips are walked at once, always expanding the commit with the
+     *  highest generation number, so every descendant of a commit is seen
+     *  before the commit itself.  Commits reachable from both sides are
+     *  candidates; their ancestors are marked stale, and the walk stops as
+     *  soon as only stale commits remain, without visiting the history
+     *  below the merge bases.  Because of the generation order, a merge
+     *  base is always found before any of its ancestors could be, so no
+     *  candidate needs to be discarded afterwards. */
+    List<Integer> mergeBases(int a, int b) {
+        load();
+        ArrayList<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        int[] flags = new int[_count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(this::newerFirst);
+        flags[a] |= PARENT1;
+        flags[b] |= PARENT2;
+        queue.add(a);
+        queue.add(b);
+        int active = 2;
+
+        while (active > 0) {
+            int c = queue.remove();
+            int f = flags[c] & (PARENT1 | PARENT2 | STALE);
+            if ((f & STALE) == 0) {
+                active -= 1;
+            }
+            if (f == (PARENT1 | PARENT2)) {
+                if ((flags[c] & RESULT) == 0) {
+                    flags[c] |= RESULT;
+                    result.add(c);
+                }
+                f |= STALE;
+            }
+            for (int p : new int[] { parent(c), mergeParent(c) }) {
+                if (p == NONE || (flags[p] & f) == f) {
+                    continue;
+                }
+                boolean wasQueued = flags[p] != 0;
+                boolean wasActive = wasQueued && (flags[p] & STALE) == 0;
+                flags[p] |= f;
+                if (!wasQueued) {
+                    queue.add(p);
+                    if ((f & STALE) == 0) {
+                        active += 1;
+                    }
+                } else if (wasActive && (flags[p] & STALE) != 0) {
+                    active -= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Order positions X and Y by decreasing generation, then decreasing
+     *  time and position. */
+    private int newerFirst(int x, int y) {
+        int c = Integer.compare(generation(y), generation(x));
+        if (c == 0) {
+            c = Long.compare(time(y), time(x));
+        }
+        return c != 0 ? c : Integer.compare(y, x);
+    }
+
+    /** Read the graph file, or build it from the commits directory if it
+     *  does not exist, unless this has already been done. */
+    private void load() {
+        if (_data != null) {
+            return;
+        }
+        _positions = new HashMap<>();
+        _count = 0;
+        _data = ByteBuffer.allocate(16 * RECORD_BYTES);
+        if (!_file.isFile()) {
+            // positions are about to be reassigned
+            _bitmaps.clear();
+            List<String> ids = plainFilenamesIn(_commits);
+            if (ids != null) {
+                for (String id : ids) {
+                    position(id);
+                }
+            }
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(_file));
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+            throw error("corrupt commit graph");
+        }
+        _data = ByteBuffer.allocate(Math.max(in.remaining(), _data.capacity()));
+        while (in.remaining() >= RECORD_BYTES) {
+            ByteBuffer rec = in.slice().limit(RECORD_BYTES);
+            in.position(in.position() + RECORD_BYTES);
+            append(rec);
+            _positions.put(id(_count - 1), _count - 1);
+        }
+    }
+
+    /** Add the record REC to the in-memory copy of the graph. */
+    private void append(ByteBuffer rec) {
+        if (_data.capacity() < (_count + 1) * RECORD_BYTES) {
+            _data = ByteBuffer.wrap(Arrays.copyOf(_data.array(),
+                                                  2 * _data.capacity()));
+        }
+        _data.put(_count * RECORD_BYTES, rec, rec.position(), RECORD_BYTES);
+        _count += 1;
+    }
+
+    /** Return the offset in _data of the record at POS. */
+    private int record(int pos) {
+        if (pos < 0 || pos >= _count) {
+            throw new IndexOutOfBoundsException("no commit at " + pos);
+        }
+        return pos * RECORD_BYTES;
+    }
+
+    /** Return TIME, formatted as by Commit.timeFormatter, in seconds since
+     *  the epoch. */
+    private static long seconds(String time) {
+        try {
+            return Commit.timeFormatter.parse(time).getTime() / 1000;
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /** The graph file. */
+    private final File _file;
+    /** Bitmaps of the ancestors of selected commits. */
+    private final CommitBitmaps _bitmaps;
+    /** The directory of commit objects. */
+    private final File _commits;
+    /** The records of the graph, or null if not yet loaded. */
+    private ByteBuffer _data;
+    /** Number of records in _data. */
+    private int _count;
+    /** Maps commit ids to their positions. */
+    private HashMap<String, Integer> _positions;
+}
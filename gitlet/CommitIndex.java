@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A persistent index of commit ids for resolving abbreviated ids.  The
+ *  index file holds a header (magic number, number of sorted ids and a
+ *  256-entry fan-out table counting the sorted ids whose first byte is at
+ *  most each value), the sorted ids, and then a short unsorted tail of ids
+ *  appended since the table was last rewritten.  Adding a commit appends
+ *  to the tail; once the tail reaches MAX_TAIL ids, the whole index is
+ *  rewritten in sorted order.  A prefix is resolved by a binary search of
+ *  the range given by the fan-out table, plus a scan of the tail. */
+class CommitIndex {
+
+    /** Magic number and version at the start of the index. */
+    static final int MAGIC = 0x47434901;
+    /** Size in bytes of the header. */
+    static final int HEADER_BYTES = 4 + 4 + 256 * 4;
+    /** Size in bytes of one id. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Largest number of unsorted ids kept before the index is sorted. */
+    static final int MAX_TAIL = 1024;
+
+    /** The index stored in FILE, covering the commits named in directory
+     *  COMMITS. */
+    CommitIndex(File file, File commits) {
+        _file = file;
+        _commits = commits;
+    }
+
+    /** Add commit ID to the index. */
+    void add(String id) {
+        if (resolve(id, 1).contains(id)) {
+            return;
+        }
+        if (tailSize() + 1 >= MAX_TAIL) {
+            TreeSet<String> all = new TreeSet<>(allIds());
+            all.add(id);
+            rewrite(all);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(_file.toPath(), WRITE,
+                                                APPEND)) {
+            out.write(ByteBuffer.wrap(fromHex(id)));
+        } catch (IOException excp) {
+            throw error("could not update commit index: %s",
+                        excp.getMessage());
+        }
+        _data = null;
+    }
+
+    /** Return the ids of up to LIMIT commits whose ids start with PREFIX,
+     *  in sorted order. */
+    List<String> resolve(String prefix, int limit) {
+        prefix = prefix.toLowerCase();
+        if (!prefix.matches("[0-9a-f]*")) {
+            return new ArrayList<>();
+        }
+        load();
+        TreeSet<String> result = new TreeSet<>();
+        int lo = 0, hi = _sorted;
+        if (prefix.length() >= 2) {
+            int b = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = b == 0 ? 0 : fanout(b - 1);
+            hi = fanout(b);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _sorted && result.size() < limit; k += 1) {
+            String id = id(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (int k = _sorted; k < _sorted + tailSize(); k += 1) {
+            String id = id(k);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        ArrayList<String> list = new ArrayList<>(result);
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    /** Rebuild the index from the commits directory. */
+    void rebuild() {
+        List<String> ids = plainFilenamesIn(_commits);
+        rewrite(new TreeSet<>(ids == null ? List.of() : ids));
+    }
+
+    /** Read the index file, building it first if it does not exist. */
+    private void load() {
+        if (_data != null) {
+            return;
+        }
+        if (!_file.isFile()) {
+            rebuild();
+        }
+        _data = ByteBuffer.wrap(readContents(_file));
+        if (_data.limit() < HEADER_BYTES || _data.getInt(0) != MAGIC) {
+            throw error("corrupt commit index");
+        }
+        _sorted = _data.getInt(4);
+    }
+
+    /** Replace the index file with one holding the sorted IDS. */
+    private void rewrite(TreeSet<String> ids) {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(ids.size());
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (String id : ids) {
+                out.write(fromHex(id));
+            }
+            out.close();
+            File tmp = new File(_file.getPath() + ".tmp");
+            writeContents(tmp, bytes.toByteArray());
+            if (!tmp.renameTo(_file)) {
+                throw error("could not replace commit index");
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit index.");
+        }
+        _data = null;
+    }
+
+    /** Return all ids in the index. */
+    private List<String> allIds() {
+        ArrayList<String> result = new ArrayList<>();
+        for (int k = 0; k < _sorted + tailSize(); k += 1) {
+            result.add(id(k));
+        }
+        return result;
+    }
+
+    /** Return the number of ids in the unsorted tail. */
+    private int tailSize() {
+        return (_data.limit() - HEADER_BYTES) / ID_BYTES - _sorted;
+    }
+
+    /** Return the number of sorted ids whose first byte is at most B. */
+    private int fanout(int b) {
+        return _data.getInt(8 + 4 * b);
+    }
+
+    /** Return the Kth id in the file. */
+    private String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _data.get(HEADER_BYTES + k * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    /** The index file. */
+    private final File _file;
+    /** The directory of commit objects. */
+    private final File _commits;
+    /** Contents of the index file, or null if not yet read. */
+    private ByteBuffer _data;
+    /** Number of sorted ids at the start of the table. */
+    private int _sorted;
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** The settings of a repository, read from its config file.  Each line of
+ *  the file is either blank, a comment starting with '#', or a setting of
+ *  the form NAME = VALUE.  Settings missing from the file, or the whole
+ *  file if it does not exist, take their default values.  The settings
+ *  are:
+ *  <dl>
+ *  <dt>compression</dt><dd>the name of the Codec used to store new objects
+ *  and commits, or "none" to store them as they are; "deflate" by
+ *  default.</dd>
+ *  <dt>compressionLevel</dt><dd>the level passed to the codec, from 1
+ *  (fastest) to 9 (smallest), or -1, the default, for the codec's
+ *  default.</dd>
+ *  <dt>mergeMaxBytes</dt><dd>the size in bytes of the largest version of a
+ *  file that merge combines line by line; larger files become a single
+ *  conflict holding both versions whole.  LineMerger.MAX_BYTES by
+ *  default.</dd>
+ *  </dl> */
+class Config {
+
+    /** Name of the setting giving the codec. */
+    static final String COMPRESSION = "compression";
+    /** Name of the setting giving the codec's level. */
+    static final String COMPRESSION_LEVEL = "compressionLevel";
+    /** Name of the setting giving the largest file merged line by line. */
+    static final String MERGE_MAX_BYTES = "mergeMaxBytes";
+    /** Value of COMPRESSION meaning objects are stored uncompressed. */
+    static final String NONE = "none";
+
+    /** The settings in FILE. */
+    Config(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        for (String line : readContentsAsString(file).split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq < 0) {
+                throw error("Bad line in %s: %s", file.getName(), line);
+            }
+            _settings.put(line.substring(0, eq).trim(),
+                          line.substring(eq + 1).trim());
+        }
+    }
+
+    /** Return the codec with which to store new objects and commits, or
+     *  null if they are to be stored uncompressed. */
+    Codec codec() {
+        String name = _settings.getOrDefault(COMPRESSION,
+                                             Codec.DEFLATE.name());
+        if (name.equals(NONE)) {
+            return null;
+        }
+        Codec result = Codec.forName(name);
+        if (result == null) {
+            throw error("Unknown compression: %s", name);
+        }
+        return result;
+    }
+
+    /** Return the level at which the codec compresses. */
+    int compressionLevel() {
+        String value = _settings.getOrDefault(COMPRESSION_LEVEL, "-1");
+        try {
+            int level = Integer.parseInt(value);
+            if (level >= -1 && level <= 9) {
+                return level;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to report the bad value. */
+        }
+        throw error("Bad compression level: %s", value);
+    }
+
+    /** Return the size in bytes of the largest version of a file merged
+     *  line by line. */
+    int mergeMaxBytes() {
+        String value = _settings.get(MERGE_MAX_BYTES);
+        if (value == null) {
+            return LineMerger.MAX_BYTES;
+        }
+        try {
+            int size = Integer.parseInt(value);
+            if (size >= 0) {
+                return size;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to report the bad value. */
+        }
+        throw error("Bad merge size limit: %s", value);
+    }
+
+    /** Settings by name. */
+    private final HashMap<String, String> _settings = new HashMap<>();
+}
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A long-running gitlet that keeps one Repo, with its object store,
+ *  commit graph, indices and staging area, in memory and runs the commands
+ *  clients send it over the Unix domain socket SOCKET.  Started with
+ *  "gitlet daemon" and stopped with "gitlet daemon --stop".  While the
+ *  socket exists, Main hands every command to the daemon rather than
+ *  running it itself, so the in-memory state is never stale.
+ *  <p>
+ *  A request is the number of arguments followed by each argument, written
+ *  with DataOutputStream.writeUTF, and then an int of flags: CACHE_STATS
+ *  asks for the cache statistics after the command, as
+ *  -Dgitlet.cacheStats=true does for the client.  The reply is the
+ *  command's standard output and standard error, each as a length and that
+ *  many bytes, and then the exit status; all ints are big-endian.  The
+ *  gitlet-client script speaks this protocol without starting a JVM.
+ *  Commands run one at a time, in order of arrival.  A command that fails
+ *  may leave changes in memory that were never saved, so the Repo is
+ *  replaced after any error. */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repo.REPO, "daemon.sock");
+    /** Request flag asking for cache statistics on standard error. */
+    static final int CACHE_STATS = 1;
+
+    /** Serve commands until stopped. */
+    void serve() {
+        SOCKET.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            _repo = new Repo();
+            while (_running) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not start daemon: %s", excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Run the command sent by CLIENT and send back its output. */
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        int flags = in.readInt();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream stdout = System.out, stderr = System.err;
+        int status = 0;
+        System.setOut(new PrintStream(out, true, UTF_8));
+        System.setErr(new PrintStream(err, true, UTF_8));
+        try {
+            if (Arrays.equals(args, new String[] { "daemon", "--stop" })) {
+                _running = false;
+            } else if (Arrays.equals(args, new String[] { "daemon" })) {
+                System.out.println("A Gitlet daemon is already running.");
+            } else {
+                Main.run(_repo, args);
+                if ((flags & CACHE_STATS) != 0
+                    || Boolean.getBoolean("gitlet.cacheStats")) {
+                    System.err.println(_repo.cacheStats());
+                }
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            _repo = new Repo();
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+            _repo = new Repo();
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        DataOutputStream reply =
+            new DataOutputStream(Channels.newOutputStream(client));
+        reply.writeInt(out.size());
+        out.writeTo(reply);
+        reply.writeInt(err.size());
+        err.writeTo(reply);
+        reply.writeInt(status);
+        reply.flush();
+    }
+
+    /** Send ARGS to the daemon, copy its output to System.out and
+     *  System.err, and return the command's exit status.  Returns -1 if no
+     *  daemon is listening on SOCKET. */
+    static int forward(String... args) {
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (server) {
+            DataOutputStream request =
+                new DataOutputStream(Channels.newOutputStream(server));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.writeInt(Boolean.getBoolean("gitlet.cacheStats")
+                             ? CACHE_STATS : 0);
+            request.flush();
+
+            DataInputStream reply =
+                new DataInputStream(Channels.newInputStream(server));
+            byte[] out = new byte[reply.readInt()];
+            reply.readFully(out);
+            byte[] err = new byte[reply.readInt()];
+            reply.readFully(err);
+            int status = reply.readInt();
+            System.out.write(out);
+            System.out.flush();
+            System.err.write(err);
+            System.err.flush();
+            return status;
+        } catch (IOException excp) {
+            throw error("lost connection to daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** The repository commands run on. */
+    private Repo _repo;
+    /** False once a client has asked the daemon to stop. */
+    private boolean _running = true;
+}
@@ -1,24 +1,22 @@
 package gitlet;
 
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
-
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
- *  next.
+ *  next.  Sequences are compared with Myers's O(ND) algorithm, dividing at
+ *  the middle snake so that space is linear in the sizes of the sequences.
  *  @author P. N. Hilfinger */
 public class Diff {
 
@@ -27,8 +25,7 @@ public class Diff {
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        _common = null;
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +45,7 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        _common = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,59 +72,17 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
         if (k1 == 0 || k2 == 0
             || k1 > _lines1.size() || k2 > _lines2.size()) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
         }
-        return _lls[k1][k2];
+        int[] runs = k1 == _lines1.size() && k2 == _lines2.size()
+            ? commonSubsequence() : compare(k1, k2);
+        int result = 0;
+        for (int k = 2; k < runs.length; k += 3) {
+            result += runs[k];
+        }
+        return result;
     }
 
     /** Return the length of the longest common subsequence of the current
@@ -142,10 +96,7 @@ public class Diff {
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        return _lines1.equals(_lines2);
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -166,30 +117,11 @@ public class Diff {
      *  first file (0-based), si2 is the starting position in the second
      *  file, and Li is the length of the subsequence. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
-            } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
-            }
+        checkData();
+        if (_common == null) {
+            _common = compare(_lines1.size(), _lines2.size());
         }
-        return toIntArr(resultList);
+        return _common.clone();
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -232,45 +164,164 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Return a longest common subsequence of the first N1 and N2 items of
+     *  the current sequences, in the form returned by commonSubsequence.
+     *  Items are replaced by small integers, equal for equal items, and
+     *  items that occur in only one of the sequences are set aside, since
+     *  they cannot be common.  What remains is compared by Myers's
+     *  algorithm, in time proportional to the sizes of the sequences times
+     *  the number of differences between them, and linear space. */
+    private int[] compare(int n1, int n2) {
+        // an item's code is negative until it is found in both sequences
+        HashMap<String, Integer> codes = new HashMap<>();
+        for (int k = 0; k < n2; k += 1) {
+            codes.putIfAbsent(_lines2.get(k), -(codes.size() + 1));
+        }
+        int[] a = new int[n1], pos1 = new int[n1];
+        int len1 = 0;
+        for (int k = 0; k < n1; k += 1) {
+            Integer code = codes.get(_lines1.get(k));
+            if (code != null) {
+                codes.put(_lines1.get(k), Math.abs(code));
+                a[len1] = Math.abs(code);
+                pos1[len1] = k;
+                len1 += 1;
+            }
+        }
+        int[] b = new int[n2], pos2 = new int[n2];
+        int len2 = 0;
+        for (int k = 0; k < n2; k += 1) {
+            int code = codes.get(_lines2.get(k));
+            if (code > 0) {
+                b[len2] = code;
+                pos2[len2] = k;
+                len2 += 1;
+            }
+        }
+
+        _a = a;
+        _b = b;
+        int max = (len1 + len2 + 1) / 2;
+        _forward = new int[2 * max + 3];
+        _backward = new int[2 * max + 3];
+        _runs = new ArrayList<>();
+        compare(0, len1, 0, len2);
+
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k < _runs.size(); k += 3) {
+            for (int i = 0; i < _runs.get(k + 2); i += 1) {
+                addRun(result, pos1[_runs.get(k) + i],
+                       pos2[_runs.get(k + 1) + i], 1);
+            }
+        }
+        _a = _b = _forward = _backward = null;
+        _runs = null;
+        return toIntArr(result);
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Add to _runs a longest common subsequence of _a[LO1 .. HI1-1] and
+     *  _b[LO2 .. HI2-1], in order. */
+    private void compare(int lo1, int hi1, int lo2, int hi2) {
+        int start1 = lo1, start2 = lo2;
+        while (lo1 < hi1 && lo2 < hi2 && _a[lo1] == _b[lo2]) {
+            lo1 += 1;
+            lo2 += 1;
+        }
+        addRun(_runs, start1, start2, lo1 - start1);
+        int end1 = hi1, end2 = hi2;
+        while (lo1 < hi1 && lo2 < hi2 && _a[hi1 - 1] == _b[hi2 - 1]) {
+            hi1 -= 1;
+            hi2 -= 1;
+        }
+        if (lo1 < hi1 && lo2 < hi2) {
+            int[] snake = middleSnake(lo1, hi1, lo2, hi2);
+            compare(lo1, snake[0], lo2, snake[1]);
+            addRun(_runs, snake[0], snake[1], snake[2] - snake[0]);
+            compare(snake[2], hi1, snake[3], hi2);
+        }
+        addRun(_runs, hi1, hi2, end1 - hi1);
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Return the middle snake of a shortest edit script converting
+     *  _a[LO1 .. HI1-1] to _b[LO2 .. HI2-1], as the positions x0, y0 in _a
+     *  and _b where it starts and x1, y1 where it ends.  The edits before
+     *  and after the snake are each at most half of the total.  The
+     *  sequences must differ in their first and last items. */
+    private int[] middleSnake(int lo1, int hi1, int lo2, int hi2) {
+        int n = hi1 - lo1, m = hi2 - lo2, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2, mid = max + 1;
+        int[] vf = _forward, vb = _backward;
+        vf[mid + 1] = 0;
+        vb[mid + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vf[mid + k - 1] < vf[mid + k + 1])
+                    ? vf[mid + k + 1] : vf[mid + k - 1] + 1;
+                int y = x - k, x0 = x, y0 = y;
+                while (x < n && y < m && _a[lo1 + x] == _b[lo2 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[mid + k] = x;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1
+                    && x + vb[mid + r] >= n) {
+                    return new int[] { lo1 + x0, lo2 + y0, lo1 + x, lo2 + y };
+                }
+            }
+            for (int r = -d; r <= d; r += 2) {
+                int x = r == -d || (r != d && vb[mid + r - 1] < vb[mid + r + 1])
+                    ? vb[mid + r + 1] : vb[mid + r - 1] + 1;
+                int y = x - r, x0 = x, y0 = y;
+                while (x < n && y < m
+                       && _a[hi1 - 1 - x] == _b[hi2 - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[mid + r] = x;
+                int k = delta - r;
+                if (!odd && k >= -d && k <= d && vf[mid + k] + x >= n) {
+                    return new int[] { hi1 - x, hi2 - y, hi1 - x0, hi2 - y0 };
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Add to RUNS, a list of runs of common items each given as the
+     *  positions at which it starts in the two sequences and its length,
+     *  the run of length LEN at positions I1 and I2, joining it to the last
+     *  run if they are adjacent. */
+    private static void addRun(ArrayList<Integer> runs, int i1, int i2,
+                               int len) {
+        if (len == 0) {
+            return;
+        }
+        int n = runs.size();
+        if (n > 0 && runs.get(n - 3) + runs.get(n - 1) == i1
+            && runs.get(n - 2) + runs.get(n - 1) == i2) {
+            runs.set(n - 1, runs.get(n - 1) + len);
+        } else {
+            runs.add(i1);
+            runs.add(i2);
+            runs.add(len);
+        }
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The result of commonSubsequence, or null if not yet computed. */
+    private int[] _common;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** The items being compared by compare, as integer codes. */
+    private int[] _a, _b;
+    /** Furthest reaching forward and backward paths for middleSnake,
+     *  indexed by diagonal. */
+    private int[] _forward, _backward;
+    /** The runs found so far by compare, in the positions of _a and _b, as
+     *  for addRun. */
+    private ArrayList<Integer> _runs;
 
 }
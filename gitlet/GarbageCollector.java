@@ -0,0 +1,391 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** An incremental mark-and-sweep collector of the commits and objects
+ *  that no branch or staged file refers to, directly or indirectly.
+ *  <p>
+ *  A collection cycle starts by taking the sorted ids of all commits and of
+ *  all objects, loose or packed, as they are at that moment; marks are
+ *  bitmaps over positions in these two lists.  Marking walks from the
+ *  roots through parents, trees, bucket nodes, blobs and chunks, keeping a
+ *  stack of references still to visit.  Sweeping then deletes, in order of
+ *  position, every unmarked commit and loose object last modified before
+ *  a grace period, and finally rewrites each pack holding unmarked objects
+ *  without them.  Anything created after the cycle started is outside the
+ *  lists and is never deleted by it.
+ *  <p>
+ *  Each call of collect works until a deadline and then saves its
+ *  progress in the state file: the lists, the marks, the roots seen so
+ *  far, the references still to visit, and the sweep position.  Roots
+ *  that appear between calls, from new commits, branches or staged files,
+ *  are marked before sweeping goes on.  Objects reachable from new roots
+ *  only through objects created after the cycle started are still found,
+ *  since those objects are walked as well, though not marked.  The state
+ *  file is deleted at the end of a cycle, and is discarded if it cannot be
+ *  read, which merely restarts the cycle. */
+class GarbageCollector {
+
+    /** Magic number and version at the start of the state file. */
+    static final int MAGIC = 0x47474301;
+    /** Kinds of reference: to a commit, a tree or bucket node, or a
+     *  blob or chunk. */
+    static final char COMMIT = 'c', TREE = 't', BLOB = 'b';
+
+    /** A collector saving its progress in STATE, for the commits in
+     *  directory COMMITS and the objects in OBJECTS. */
+    GarbageCollector(File state, File commits, ObjectStore objects) {
+        _state = state;
+        _commits = commits;
+        _objects = objects;
+    }
+
+    /** Continue the current collection cycle, or start one, whose roots
+     *  are the commits HEADS and blobs STAGED, until DEADLINE in
+     *  milliseconds since the epoch.  Commits and loose objects are
+     *  deleted, and packs rewritten, only if last modified no later than
+     *  BEFORE.  Return true iff the cycle finished.  At least one step of
+     *  the cycle is taken, however early the deadline. */
+    boolean collect(Collection<String> heads, Collection<String> staged,
+                    long deadline, long before) {
+        load();
+        _deadline = deadline;
+        _before = before;
+        _steps = 0;
+        _removedByCall = 0;
+        _visited.clear();
+        addRoots(heads, COMMIT);
+        addRoots(staged, BLOB);
+
+        while (!_pending.isEmpty()) {
+            if (outOfTime()) {
+                save();
+                return false;
+            }
+            visit(_pending.pop());
+        }
+
+        int n = _commitIds.length + _objectIds.length;
+        while (_cursor < n) {
+            if (outOfTime()) {
+                save();
+                return false;
+            }
+            sweep(_cursor);
+            _cursor += 1;
+        }
+
+        while (true) {
+            if (outOfTime()) {
+                save();
+                return false;
+            }
+            int dropped = _objects.prunePack(this::dead, _before);
+            if (dropped < 0) {
+                break;
+            }
+            _removedObjects += dropped;
+        }
+        _state.delete();
+        return true;
+    }
+
+    /** Return the number of commits deleted in this cycle. */
+    int removedCommits() {
+        return _removedCommits;
+    }
+
+    /** Return the number of commits deleted by the latest call of
+     *  collect, after which indexes of commits must be rebuilt even if the
+     *  cycle has not finished. */
+    int removedCommitsByCall() {
+        return _removedByCall;
+    }
+
+    /** Return the number of objects deleted in this cycle. */
+    int removedObjects() {
+        return _removedObjects;
+    }
+
+    /** Queue the commits or blobs, as KIND says, with ids IDS that are not
+     *  yet roots of this cycle. */
+    private void addRoots(Collection<String> ids, char kind) {
+        for (String id : ids) {
+            String ref = kind + id;
+            if (_roots.add(ref)) {
+                _pending.push(ref);
+            }
+        }
+    }
+
+    /** Mark the commit or object named by reference REF, and queue the
+     *  references it holds, unless it has already been visited. */
+    private void visit(String ref) {
+        char kind = ref.charAt(0);
+        String id = ref.substring(1);
+        if (!mark(ref)) {
+            return;
+        }
+        switch (kind) {
+        case COMMIT:
+            File file = join(_commits, id);
+            if (!file.isFile()) {
+                return;
+            }
+            Commit commit = Commit.read(file);
+            for (String parent : new String[] { commit.parent,
+                                                commit.mergeParent }) {
+                if (parent != null) {
+                    _pending.push(COMMIT + parent);
+                }
+            }
+            if (commit.tree != null) {
+                _pending.push(TREE + commit.tree);
+            }
+            for (String blob : commit.blobs.values()) {
+                _pending.push(BLOB + blob);
+            }
+            break;
+        case TREE:
+            if (_objects.contains(id)) {
+                List<String> trees = new ArrayList<>(),
+                    blobs = new ArrayList<>();
+                Tree.references(_objects, id, trees, blobs);
+                for (String tree : trees) {
+                    _pending.push(TREE + tree);
+                }
+                for (String blob : blobs) {
+                    _pending.push(BLOB + blob);
+                }
+            }
+            break;
+        default:
+            if (_objects.contains(id)) {
+                for (String chunk : _objects.chunkIds(id)) {
+                    _pending.push(BLOB + chunk);
+                }
+            }
+            break;
+        }
+    }
+
+    /** Mark the commit or object named by REF, and return true iff it was
+     *  not marked already.  References outside this cycle's lists are
+     *  remembered only until the end of this call of collect. */
+    private boolean mark(String ref) {
+        boolean commit = ref.charAt(0) == COMMIT;
+        String[] ids = commit ? _commitIds : _objectIds;
+        BitSet marks = commit ? _commitMarks : _objectMarks;
+        int k = Arrays.binarySearch(ids, ref.substring(1));
+        if (k < 0) {
+            return _visited.add(ref);
+        } else if (marks.get(k)) {
+            return false;
+        }
+        marks.set(k);
+        return true;
+    }
+
+    /** Delete the commit or loose object at position K of the combined
+     *  lists, commits first, if it is unmarked and old enough. */
+    private void sweep(int k) {
+        if (k < _commitIds.length) {
+            if (!_commitMarks.get(k)) {
+                File file = join(_commits, _commitIds[k]);
+                if (file.isFile() && file.lastModified() <= _before
+                    && file.delete()) {
+                    _removedCommits += 1;
+                    _removedByCall += 1;
+                }
+            }
+            return;
+        }
+        k -= _commitIds.length;
+        if (!_objectMarks.get(k) && _objects.deleteLoose(_objectIds[k],
+                                                         _before)) {
+            _removedObjects += 1;
+        }
+    }
+
+    /** Return true iff object ID was in the object list at the start of
+     *  this cycle and is unmarked. */
+    private boolean dead(String id) {
+        int k = Arrays.binarySearch(_objectIds, id);
+        return k >= 0 && !_objectMarks.get(k);
+    }
+
+    /** Return true iff the deadline has passed and at least one step has
+     *  been taken since collect was called.  Counts a step. */
+    private boolean outOfTime() {
+        _steps += 1;
+        return _steps > 1 && System.currentTimeMillis() >= _deadline;
+    }
+
+    /** Read the state of the current cycle, or start a new one if there is
+     *  none or it cannot be read. */
+    private void load() {
+        if (_state.isFile()) {
+            try {
+                ByteBuffer in = ByteBuffer.wrap(readContents(_state));
+                if (in.getInt() == MAGIC) {
+                    _removedCommits = in.getInt();
+                    _removedObjects = in.getInt();
+                    _cursor = in.getInt();
+                    _commitIds = readIds(in);
+                    _objectIds = readIds(in);
+                    _commitMarks = readBits(in);
+                    _objectMarks = readBits(in);
+                    _roots = new HashSet<>(Arrays.asList(readRefs(in)));
+                    _pending = new ArrayDeque<>(Arrays.asList(readRefs(in)));
+                    return;
+                }
+            } catch (BufferUnderflowException excp) {
+                /* Fall through to start a new cycle. */
+            }
+        }
+        List<String> commits = plainFilenamesIn(_commits);
+        _commitIds = commits == null ? new String[0]
+            : commits.toArray(new String[0]);
+        Arrays.sort(_commitIds);
+        _objectIds = _objects.ids().toArray(new String[0]);
+        _commitMarks = new BitSet();
+        _objectMarks = new BitSet();
+        _roots = new HashSet<>();
+        _pending = new ArrayDeque<>();
+        _cursor = _removedCommits = _removedObjects = 0;
+    }
+
+    /** Write the state of the current cycle to the state file. */
+    private void save() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(_removedCommits);
+            out.writeInt(_removedObjects);
+            out.writeInt(_cursor);
+            writeIds(out, _commitIds);
+            writeIds(out, _objectIds);
+            writeBits(out, _commitMarks);
+            writeBits(out, _objectMarks);
+            writeRefs(out, _roots.toArray(new String[0]));
+            writeRefs(out, _pending.toArray(new String[0]));
+            out.close();
+            writeContents(_state, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw error("Internal error saving collection state.");
+        }
+    }
+
+    /** Write IDS to OUT as a count and 20-byte ids. */
+    private static void writeIds(DataOutputStream out, String[] ids)
+        throws IOException {
+        out.writeInt(ids.length);
+        for (String id : ids) {
+            out.write(fromHex(id));
+        }
+    }
+
+    /** Return ids written by writeIds, read from IN. */
+    private static String[] readIds(ByteBuffer in) {
+        String[] result = new String[in.getInt()];
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int k = 0; k < result.length; k += 1) {
+            in.get(id);
+            result[k] = toHex(id);
+        }
+        return result;
+    }
+
+    /** Write BITS to OUT as a count and longs. */
+    private static void writeBits(DataOutputStream out, BitSet bits)
+        throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /** Return bits written by writeBits, read from IN. */
+    private static BitSet readBits(ByteBuffer in) {
+        long[] words = new long[in.getInt()];
+        for (int k = 0; k < words.length; k += 1) {
+            words[k] = in.getLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /** Write references REFS to OUT as a count and, for each, its kind as
+     *  a byte and its 20-byte id. */
+    private static void writeRefs(DataOutputStream out, String[] refs)
+        throws IOException {
+        out.writeInt(refs.length);
+        for (String ref : refs) {
+            out.writeByte(ref.charAt(0));
+            out.write(fromHex(ref.substring(1)));
+        }
+    }
+
+    /** Return references written by writeRefs, read from IN, in the same
+     *  order. */
+    private static String[] readRefs(ByteBuffer in) {
+        String[] result = new String[in.getInt()];
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int k = 0; k < result.length; k += 1) {
+            char kind = (char) in.get();
+            in.get(id);
+            result[k] = kind + toHex(id);
+        }
+        return result;
+    }
+
+    /** The state file. */
+    private final File _state;
+    /** The directory of commits. */
+    private final File _commits;
+    /** The object store. */
+    private final ObjectStore _objects;
+
+    /** Sorted ids of the commits and objects present when the cycle
+     *  started. */
+    private String[] _commitIds, _objectIds;
+    /** Marks of the commits and objects at each position of _commitIds
+     *  and _objectIds. */
+    private BitSet _commitMarks, _objectMarks;
+    /** References to the roots queued so far in this cycle. */
+    private HashSet<String> _roots;
+    /** References still to be visited, the next on top. */
+    private ArrayDeque<String> _pending;
+    /** Position of the next commit or object to sweep, counting commits
+     *  before objects. */
+    private int _cursor;
+    /** Numbers of commits and objects deleted so far in this cycle. */
+    private int _removedCommits, _removedObjects;
+
+    /** References outside the lists visited during this call of
+     *  collect. */
+    private final HashSet<String> _visited = new HashSet<>();
+    /** Time at which this call of collect is to stop. */
+    private long _deadline;
+    /** Latest modification time of anything deleted by this call. */
+    private long _before;
+    /** Number of steps taken by this call of collect. */
+    private int _steps;
+    /** Number of commits deleted by this call of collect. */
+    private int _removedByCall;
+}
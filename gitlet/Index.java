@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The index file, which holds the staging area and a cache of working
+ *  file metadata.
+ *  <p>
+ *  The staging area maps each file staged for addition to the id of its
+ *  blob, which is already in the object store, and lists the files staged
+ *  for removal.
+ *  <p>
+ *  The cache remembers for each working-tree file gitlet has hashed or
+ *  written the file's size, modification time and inode number at that
+ *  moment, along with its blob id.  While a file's metadata is unchanged
+ *  its contents are assumed unchanged too, so commands can use the cached
+ *  blob id instead of reading and hashing the file.
+ *  <p>
+ *  A file modified within the same second the index was written can look
+ *  unchanged even though it is not, so entries whose modification time is
+ *  not older than the index itself are never trusted.
+ *  <p>
+ *  The file holds MAGIC, the time it was written, the cache entries sorted
+ *  by path, the files staged for addition with their blob ids, and the
+ *  files staged for removal.  Changes are collected in memory and written
+ *  by save, which replaces the file atomically by writing a temporary file
+ *  and renaming it, so a command either updates the whole staging area or
+ *  none of it. */
+class Index {
+
+    /** Magic number and version at the start of the index. */
+    static final int MAGIC = 0x474c4902;
+    /** Magic number of indexes holding only the metadata cache. */
+    static final int CACHE_ONLY_MAGIC = 0x474c4901;
+
+    /** The index stored in FILE. */
+    Index(File file) {
+        _file = file;
+    }
+
+    /** Return the blob id of the working file FILE, tracked as PATH, if
+     *  its metadata matches the cached entry, and otherwise null.  Several
+     *  threads may call this at once, provided none is modifying the
+     *  index. */
+    String cachedBlob(String path, File file) {
+        load();
+        Entry entry = _entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        Entry now = stat(file, entry.blob);
+        if (now == null || now.size != entry.size || now.mtime != entry.mtime
+            || now.inode != entry.inode) {
+            return null;
+        }
+        if (TimeUnit.NANOSECONDS.toSeconds(entry.mtime)
+            >= TimeUnit.NANOSECONDS.toSeconds(_loadedTime)) {
+            return null;
+        }
+        return entry.blob;
+    }
+
+    /** Return the blob id of working file FILE, tracked as PATH, using the
+     *  cached value if FILE's metadata is unchanged, and otherwise hashing
+     *  FILE and caching the result. */
+    String blobOf(String path, File file) {
+        String blob = cachedBlob(path, file);
+        if (blob == null) {
+            blob = ObjectStore.hash(file);
+            record(path, file, blob);
+        }
+        return blob;
+    }
+
+    /** Record that working file FILE, tracked as PATH, currently has
+     *  contents BLOB. */
+    void record(String path, File file, String blob) {
+        load();
+        Entry entry = stat(file, blob);
+        if (entry == null) {
+            forget(path);
+        } else {
+            _entries.put(path, entry);
+            _dirty = true;
+        }
+    }
+
+    /** Drop any entry for PATH. */
+    void forget(String path) {
+        load();
+        if (_entries.remove(path) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Return the files staged for addition, mapped to their blob ids, in
+     *  order of file name. */
+    SortedMap<String, String> staged() {
+        load();
+        return Collections.unmodifiableSortedMap(_staged);
+    }
+
+    /** Return the files staged for removal, in order of file name. */
+    SortedSet<String> removed() {
+        load();
+        return Collections.unmodifiableSortedSet(_removed);
+    }
+
+    /** Return true iff any file is staged for addition or removal. */
+    boolean hasStagedChanges() {
+        load();
+        return !_staged.isEmpty() || !_removed.isEmpty();
+    }
+
+    /** Stage PATH for addition with contents BLOB. */
+    void stage(String path, String blob) {
+        load();
+        _removed.remove(path);
+        _staged.put(path, blob);
+        _dirty = true;
+    }
+
+    /** Stage PATH for removal. */
+    void stageRemoval(String path) {
+        load();
+        _staged.remove(path);
+        _removed.add(path);
+        _dirty = true;
+    }
+
+    /** Remove PATH from the staging area. */
+    void unstage(String path) {
+        load();
+        if (_staged.remove(path) != null | _removed.remove(path)) {
+            _dirty = true;
+        }
+    }
+
+    /** Empty the staging area. */
+    void clearStaging() {
+        load();
+        if (hasStagedChanges()) {
+            _staged.clear();
+            _removed.clear();
+            _dirty = true;
+        }
+    }
+
+    /** Write the index back to its file if it has changed. */
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            long written = TimeUnit.MILLISECONDS.toNanos(
+                System.currentTimeMillis());
+            out.writeInt(MAGIC);
+            out.writeLong(written);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                Entry entry = e.getValue();
+                writeString(out, e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(fromHex(entry.blob));
+            }
+            out.writeInt(_staged.size());
+            for (Map.Entry<String, String> e : _staged.entrySet()) {
+                writeString(out, e.getKey());
+                out.write(fromHex(e.getValue()));
+            }
+            out.writeInt(_removed.size());
+            for (String path : _removed) {
+                writeString(out, path);
+            }
+            out.close();
+            File tmp = new File(_file.getPath() + ".tmp");
+            writeContents(tmp, bytes.toByteArray());
+            if (!tmp.renameTo(_file)) {
+                throw error("could not replace index");
+            }
+            _loadedTime = written;
+        } catch (IOException excp) {
+            throw error("Internal error encoding index.");
+        }
+        _dirty = false;
+    }
+
+    /** Read the index file, if not already done.  A missing index is
+     *  treated as empty. */
+    private synchronized void load() {
+        if (_entries != null) {
+            return;
+        }
+        _entries = new TreeMap<>();
+        _staged = new TreeMap<>();
+        _removed = new TreeSet<>();
+        _loadedTime = 0;
+        if (!_file.isFile()) {
+            return;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(readContents(_file));
+            int magic = in.getInt();
+            if (magic != MAGIC && magic != CACHE_ONLY_MAGIC) {
+                throw error("corrupt index");
+            }
+            _loadedTime = in.getLong();
+            int n = in.getInt();
+            byte[] blob = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                String path = readString(in);
+                long size = in.getLong(), mtime = in.getLong(),
+                    inode = in.getLong();
+                in.get(blob);
+                _entries.put(path, new Entry(size, mtime, inode, toHex(blob)));
+            }
+            if (magic == CACHE_ONLY_MAGIC) {
+                return;
+            }
+            n = in.getInt();
+            for (int i = 0; i < n; i += 1) {
+                String path = readString(in);
+                in.get(blob);
+                _staged.put(path, toHex(blob));
+            }
+            n = in.getInt();
+            for (int i = 0; i < n; i += 1) {
+                _removed.add(readString(in));
+            }
+        } catch (BufferUnderflowException excp) {
+            throw error("corrupt index");
+        }
+    }
+
+    /** Return an entry for FILE with its current metadata and blob id
+     *  BLOB, or null if FILE is not a plain file. */
+    private static Entry stat(File file, String blob) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new Entry(attrs.size(),
+                             attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                             inode(file), blob);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return the inode number of FILE, or 0 where the file system does not
+     *  provide one. */
+    private static long inode(File file) {
+        try {
+            Object ino = Files.getAttribute(file.toPath(), "unix:ino");
+            return ((Number) ino).longValue();
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return 0;
+        }
+    }
+
+    /** Cached metadata and blob id of one working file. */
+    private static class Entry {
+        /** An entry for a file of SIZE bytes, last modified at MTIME
+         *  nanoseconds after the epoch, with inode number INODE and
+         *  contents BLOB. */
+        Entry(long size, long mtime, long inode, String blob) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.blob = blob;
+        }
+
+        /** File metadata. */
+        final long size, mtime, inode;
+        /** Blob id of the file's contents. */
+        final String blob;
+    }
+
+    /** The index file. */
+    private final File _file;
+    /** Cache entries by path, or null if not yet loaded. */
+    private TreeMap<String, Entry> _entries;
+    /** Files staged for addition, mapped to their blob ids. */
+    private TreeMap<String, String> _staged;
+    /** Files staged for removal. */
+    private TreeSet<String> _removed;
+    /** Time the loaded index was written, in nanoseconds since the epoch. */
+    private long _loadedTime;
+    /** True iff the index in memory differs from the file. */
+    private boolean _dirty;
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Merges the versions of a file changed in both commits being merged,
+ *  line by line against its version at the split point, as diff3 does.
+ *  Diffs from the split point to each side divide the file into stable
+ *  runs of lines that neither side changed and the chunks between them.
+ *  A chunk changed on one side only takes that side's lines; a chunk
+ *  changed on both sides is a conflict, written between markers, unless
+ *  both sides made the same change.  So edits to different parts of a file
+ *  merge cleanly, and conflicts cover only the lines where edits overlap.
+ *  <p>
+ *  Lines are compared as bytes, including their line terminators.  Files
+ *  deleted on one side, binary files (those with a NUL byte near the
+ *  start), and files larger than a limit, MAX_BYTES unless configured
+ *  otherwise, which would take too much memory to diff, are written as a single conflict holding both versions
+ *  whole, streamed from the object store, or for binary files a stub
+ *  naming them.  A LineMerger may merge several files at once. */
+class LineMerger {
+
+    /** Default size of the largest version of a file, in bytes, merged
+     *  line by line. */
+    static final int MAX_BYTES = 16 << 20;
+
+    /** The start of a conflict and the version in the current commit. */
+    static final String MINE = "<<<<<<< HEAD\n";
+    /** The end of the current version and start of the given one. */
+    static final String SEPARATOR = "=======\n";
+    /** The end of a conflict. */
+    static final String END = ">>>>>>>\n";
+    /** Stands in for a binary version in a conflict, given its blob id and
+     *  size. */
+    static final String STUB = "Binary file: blob %s, %d bytes\n";
+    /** Number of bytes at the start of a file examined to decide whether
+     *  it is binary. */
+    static final int BINARY_PROBE = 8000;
+
+    /** A merger reading blobs from OBJECTS that merges versions of at
+     *  most MAXBYTES bytes line by line. */
+    LineMerger(ObjectStore objects, int maxBytes) {
+        _objects = objects;
+        _maxBytes = maxBytes;
+    }
+
+    /** Write to DEST the merge of the blobs MINE and THEIRS, with common
+     *  ancestor BASE.  Any of them may be null for a file that does not
+     *  exist in that commit.  Return true iff the result has conflicts. */
+    boolean merge(String base, String mine, String theirs, File dest) {
+        dest.getParentFile().mkdirs();
+        if (mine == null || theirs == null
+            || !mergeable(base) || !mergeable(mine) || !mergeable(theirs)) {
+            writeConflict(dest, mine, theirs);
+            return true;
+        }
+        StringBuilder out = new StringBuilder();
+        boolean conflict = merge(lines(base), lines(mine), lines(theirs), out);
+        writeContents(dest, out.toString().getBytes(ISO_8859_1));
+        return conflict;
+    }
+
+    /** Append to OUT the merge of the lines MINE and THEIRS, with common
+     *  ancestor BASE.  Return true iff there were conflicts. */
+    static boolean merge(List<String> base, List<String> mine,
+                         List<String> theirs, StringBuilder out) {
+        int[] toMine = matches(base, mine), toTheirs = matches(base, theirs);
+        boolean conflict = false;
+        int b = 0, m = 0, t = 0;
+        while (b < base.size() || m < mine.size() || t < theirs.size()) {
+            int next = b;
+            while (next < base.size()
+                   && (toMine[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int m1 = next < base.size() ? toMine[next] : mine.size();
+            int t1 = next < base.size() ? toTheirs[next] : theirs.size();
+            if (next == b && m1 == m && t1 == t) {
+                out.append(base.get(b));
+                b += 1;
+                m += 1;
+                t += 1;
+                continue;
+            }
+            List<String> baseChunk = base.subList(b, next),
+                mineChunk = mine.subList(m, m1),
+                theirsChunk = theirs.subList(t, t1);
+            if (mineChunk.equals(baseChunk)) {
+                append(out, theirsChunk);
+            } else if (theirsChunk.equals(baseChunk)
+                       || mineChunk.equals(theirsChunk)) {
+                append(out, mineChunk);
+            } else {
+                out.append(MINE);
+                appendLines(out, mineChunk);
+                out.append(SEPARATOR);
+                appendLines(out, theirsChunk);
+                out.append(END);
+                conflict = true;
+            }
+            b = next;
+            m = m1;
+            t = t1;
+        }
+        return conflict;
+    }
+
+    /** Write to DEST a conflict holding the whole of blobs MINE and THEIRS,
+     *  either of which may be null for an absent file.  The blobs are
+     *  copied from the object store into DEST between the markers, without
+     *  being read into memory.  If either is binary, DEST instead gets a
+     *  stub naming the blob and size of each version, which can be
+     *  recovered with checkout. */
+    void writeConflict(File dest, String mine, String theirs) {
+        boolean binary = (mine != null && binary(mine))
+            || (theirs != null && binary(theirs));
+        try (FileChannel out = FileChannel.open(dest.toPath(), WRITE, CREATE,
+                                                TRUNCATE_EXISTING)) {
+            write(out, MINE);
+            writeVersion(out, mine, binary);
+            write(out, SEPARATOR);
+            writeVersion(out, theirs, binary);
+            write(out, END);
+        } catch (IOException excp) {
+            throw error("could not write conflict in %s: %s", dest,
+                        excp.getMessage());
+        }
+    }
+
+    /** Write to OUT the version of a file in blob ID, or nothing if ID is
+     *  null, as a stub if BINARY. */
+    private void writeVersion(FileChannel out, String id, boolean binary)
+        throws IOException {
+        if (id == null) {
+            return;
+        } else if (binary) {
+            write(out, String.format(STUB, id, _objects.size(id)));
+        } else {
+            _objects.copyTo(id, out);
+        }
+    }
+
+    /** Write TEXT, which holds only ASCII characters, to OUT. */
+    private static void write(FileChannel out, String text)
+        throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(ISO_8859_1));
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    /** Return true iff blob ID, which may be null for an empty file, is
+     *  small enough to merge line by line and not binary. */
+    private boolean mergeable(String id) {
+        return id == null
+            || _objects.size(id) <= _maxBytes && !binary(id);
+    }
+
+    /** Return true iff blob ID appears to be binary: that is, if its first
+     *  BINARY_PROBE bytes include a NUL. */
+    private boolean binary(String id) {
+        ByteBuffer head = _objects.head(id, BINARY_PROBE);
+        while (head.hasRemaining()) {
+            if (head.get() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the lines of blob ID, each with its terminator, or no lines
+     *  if ID is null.  Bytes are kept as they are, one char each. */
+    private List<String> lines(String id) {
+        List<String> result = new ArrayList<>();
+        if (id == null) {
+            return result;
+        }
+        String contents = ISO_8859_1.decode(_objects.map(id)).toString();
+        int start = 0;
+        while (start < contents.length()) {
+            int end = contents.indexOf('\n', start);
+            end = end < 0 ? contents.length() : end + 1;
+            result.add(contents.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Return an array giving, for each line of FROM, the position of the
+     *  line of TO it is matched with by Diff, or -1 if none. */
+    private static int[] matches(List<String> from, List<String> to) {
+        int[] result = new int[from.size()];
+        Arrays.fill(result, -1);
+        Diff diff = new Diff();
+        diff.setSequences(from, to);
+        int[] common = diff.commonSubsequence();
+        for (int k = 0; k < common.length; k += 3) {
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                result[common[k] + i] = common[k + 1] + i;
+            }
+        }
+        return result;
+    }
+
+    /** Append LINES to OUT. */
+    private static void append(StringBuilder out, List<String> lines) {
+        for (String line : lines) {
+            out.append(line);
+        }
+    }
+
+    /** Append LINES to OUT, ending the last with a newline if it has
+     *  none, so that a marker can follow. */
+    private static void appendLines(StringBuilder out, List<String> lines) {
+        append(out, lines);
+        if (!lines.isEmpty() && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    /** Source of file contents. */
+    private final ObjectStore _objects;
+    /** Size of the largest version merged line by line. */
+    private final int _maxBytes;
+}
@@ -2,6 +2,8 @@ package gitlet;
 
 import java.util.Arrays;
 
+import static gitlet.Utils.error;
+
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author
  */
@@ -10,24 +12,41 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        try {
+            if (Daemon.SOCKET.exists()) {
+                int status = Daemon.forward(args);
+                if (status >= 0) {
+                    System.exit(status);
+                }
+            }
+            Repo myRepo = new Repo();
+            run(myRepo, args);
+            if (Boolean.getBoolean("gitlet.cacheStats")) {
+                System.err.println(myRepo.cacheStats());
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
             System.exit(0);
         }
-        // FILL THIS IN
-        Repo myRepo = new Repo();
+    }
+
+    /** Run the command in ARGS on MYREPO, throwing a GitletException
+     *  whose message is to be printed on errors. */
+    static void run(Repo myRepo, String... args) {
+        if (args.length == 0) {
+            throw error("Please enter a command.");
+        }
         String command = args[0];
         switch(command) {
             case "init":
                 if (args.length != 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 myRepo.init();
                 break;
             case "add":
-                checkInput(args, 2);
-                myRepo.add(args[1]);
+                checkInput(args, 2, Integer.MAX_VALUE);
+                myRepo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 checkInput(args, 2);
@@ -39,12 +58,10 @@ public class Main {
                 break;
             case "checkout":
                 if (args.length < 2 || args.length > 4) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 if (!Repo.REPO.exists()) {
-                    System.out.println("Not in an initialized Gitlet directory.");
-                    System.exit(0);
+                    throw error("Not in an initialized Gitlet directory.");
                 }
                 myRepo.checkOutCommands(Arrays.copyOfRange(args, 1, args.length));
                 break;
@@ -57,8 +74,12 @@ public class Main {
                 myRepo.logGlobal();
                 break;
             case "find":
-                checkInput(args, 2);
-                myRepo.find(args[1]);
+                checkInput(args, 2, 3);
+                if (args.length == 3) {
+                    myRepo.find(args[1], args[2]);
+                } else {
+                    myRepo.find(null, args[1]);
+                }
                 break;
             case "status":
                 checkInput(args, 1);
@@ -80,20 +101,43 @@ public class Main {
                 checkInput(args, 2);
                 myRepo.merge(args[1]);
                 break;
+            case "repack":
+                checkInput(args, 1);
+                myRepo.repack();
+                break;
+            case "gc":
+                checkInput(args, 1, 5);
+                myRepo.gc(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "migrate":
+                checkInput(args, 1);
+                myRepo.migrate();
+                break;
+            case "daemon":
+                checkInput(args, 1, 2);
+                if (args.length == 2 && !args[1].equals("--stop")) {
+                    throw error("Incorrect operands.");
+                } else if (args.length == 2) {
+                    throw error("No Gitlet daemon is running.");
+                }
+                new Daemon().serve();
+                break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
         }
     }
 
     private static void checkInput(String[] args, int numOperands) {
-        if (args.length != numOperands) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+        checkInput(args, numOperands, numOperands);
+    }
+
+    private static void checkInput(String[] args, int minOperands,
+                                   int maxOperands) {
+        if (args.length < minOperands || args.length > maxOperands) {
+            throw error("Incorrect operands.");
         }
         if (!Repo.REPO.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
 }
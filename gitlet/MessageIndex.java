@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A persistent inverted index from commit messages to commit ids, used by
+ *  find.  The index holds one record per commit for its whole message, and
+ *  one per distinct word of the message, each record being a key and a
+ *  commit id.  Message keys are the message prefixed by MESSAGE; word keys
+ *  are the word, in lower case, prefixed by WORD.
+ *  <p>
+ *  The file holds a header (magic number, number of sorted records and the
+ *  offset at which unsorted records start), a table of the offsets of the
+ *  sorted records in order of key, the sorted records, and then a tail of
+ *  records appended since the file was last rewritten.  Adding a commit
+ *  appends to the tail; once the tail holds MAX_TAIL records, the whole
+ *  index is rewritten in sorted order.  Exact and prefix searches are
+ *  binary searches of the sorted records plus a scan of the tail.
+ *  Substring searches look up the words the substring must contain, if
+ *  any, and check the messages of those commits only; otherwise they scan
+ *  the message records, never the commits themselves. */
+class MessageIndex {
+
+    /** Magic number and version at the start of the index. */
+    static final int MAGIC = 0x474d4901;
+    /** Size in bytes of the header. */
+    static final int HEADER_BYTES = 4 + 4 + 4;
+    /** Size in bytes of one commit id. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Largest number of unsorted records kept before the index is
+     *  sorted. */
+    static final int MAX_TAIL = 1024;
+    /** Prefix of keys holding whole messages. */
+    static final String MESSAGE = "m:";
+    /** Prefix of keys holding single words. */
+    static final String WORD = "w:";
+
+    /** The index stored in FILE, covering the commits named in directory
+     *  COMMITS. */
+    MessageIndex(File file, File commits) {
+        _file = file;
+        _commits = commits;
+    }
+
+    /** Add commit ID, whose message is MSG, to the index. */
+    void add(String id, String msg) {
+        load();
+        if (find(msg, false).contains(id)) {
+            return;
+        }
+        TreeMap<String, String> records = records(id, msg);
+        if (tailSize() + records.size() >= MAX_TAIL) {
+            TreeSet<String[]> all = allRecords();
+            for (Map.Entry<String, String> r : records.entrySet()) {
+                all.add(new String[] { r.getKey(), r.getValue() });
+            }
+            rewrite(all);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(_file.toPath(), WRITE,
+                                                APPEND)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            for (Map.Entry<String, String> r : records.entrySet()) {
+                writeRecord(data, r.getKey(), r.getValue());
+            }
+            data.close();
+            out.write(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException excp) {
+            throw error("could not update message index: %s",
+                        excp.getMessage());
+        }
+        _data = null;
+    }
+
+    /** Return the ids of the commits whose message is MSG, or, if PREFIX,
+     *  starts with MSG, in sorted order. */
+    List<String> find(String msg, boolean prefix) {
+        load();
+        String key = MESSAGE + msg;
+        TreeSet<String> result = new TreeSet<>();
+        for (int k = lowerBound(key); k < _sorted; k += 1) {
+            String found = key(sorted(k));
+            if (prefix ? !found.startsWith(key) : !found.equals(key)) {
+                break;
+            }
+            result.add(id(sorted(k)));
+        }
+        for (int pos : tail()) {
+            String found = key(pos);
+            if (prefix ? found.startsWith(key) : found.equals(key)) {
+                result.add(id(pos));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of the commits whose message contains TEXT, in
+     *  sorted order. */
+    List<String> findSubstring(String text) {
+        load();
+        TreeSet<String> result = new TreeSet<>();
+        String word = longestInnerWord(text);
+        if (word != null) {
+            for (String id : lookup(WORD + word)) {
+                if (Commit.readHeader(join(_commits, id)).msg.contains(text)) {
+                    result.add(id);
+                }
+            }
+        } else {
+            ArrayList<Integer> positions = new ArrayList<>();
+            for (int k = lowerBound(MESSAGE);
+                 k < _sorted && key(sorted(k)).startsWith(MESSAGE); k += 1) {
+                positions.add(sorted(k));
+            }
+            positions.addAll(tail());
+            for (int pos : positions) {
+                String key = key(pos);
+                if (key.startsWith(MESSAGE)
+                    && key.substring(MESSAGE.length()).contains(text)) {
+                    result.add(id(pos));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Rebuild the index from the commits directory. */
+    void rebuild() {
+        TreeSet<String[]> all = new TreeSet<>(MessageIndex::compareRecords);
+        List<String> ids = plainFilenamesIn(_commits);
+        for (String id : ids == null ? List.<String>of() : ids) {
+            String msg = Commit.readHeader(join(_commits, id)).msg;
+            for (Map.Entry<String, String> r : records(id, msg).entrySet()) {
+                all.add(new String[] { r.getKey(), r.getValue() });
+            }
+        }
+        rewrite(all);
+    }
+
+    /** Return the records describing commit ID with message MSG, as a map
+     *  from keys to ID. */
+    private static TreeMap<String, String> records(String id, String msg) {
+        TreeMap<String, String> result = new TreeMap<>();
+        result.put(MESSAGE + msg, id);
+        for (String word : words(msg)) {
+            result.put(WORD + word, id);
+        }
+        return result;
+    }
+
+    /** Return the distinct words of TEXT, in lower case.  Words are
+     *  maximal runs of letters and digits. */
+    private static TreeSet<String> words(String text) {
+        TreeSet<String> result = new TreeSet<>();
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Return the longest word of TEXT that is a whole word in every
+     *  message containing TEXT, that is, one with a non-word character on
+     *  either side within TEXT, or null if there is none. */
+    private static String longestInnerWord(String text) {
+        String[] parts = text.split("[^\\p{L}\\p{N}]+", -1);
+        String best = null;
+        for (int i = 1; i < parts.length - 1; i += 1) {
+            if (best == null || parts[i].length() > best.length()) {
+                best = parts[i];
+            }
+        }
+        return best == null || best.isEmpty() ? null : best.toLowerCase();
+    }
+
+    /** Return the ids of all records with key KEY. */
+    private TreeSet<String> lookup(String key) {
+        TreeSet<String> result = new TreeSet<>();
+        for (int k = lowerBound(key); k < _sorted; k += 1) {
+            if (!key(sorted(k)).equals(key)) {
+                break;
+            }
+            result.add(id(sorted(k)));
+        }
+        for (int pos : tail()) {
+            if (key(pos).equals(key)) {
+                result.add(id(pos));
+            }
+        }
+        return result;
+    }
+
+    /** Return the index of the first sorted record whose key is at least
+     *  KEY. */
+    private int lowerBound(String key) {
+        int lo = 0, hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(sorted(mid)).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Read the index file, building it first if it does not exist. */
+    private void load() {
+        if (_data != null) {
+            return;
+        }
+        if (!_file.isFile()) {
+            rebuild();
+        }
+        try (FileChannel in = FileChannel.open(_file.toPath(), READ)) {
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_data.limit() < HEADER_BYTES || _data.getInt(0) != MAGIC) {
+            throw error("corrupt message index");
+        }
+        _sorted = _data.getInt(4);
+        _tailStart = _data.getInt(8);
+    }
+
+    /** Replace the index file with one holding RECORDS, each a key and a
+     *  commit id, in sorted order. */
+    private void rewrite(TreeSet<String[]> records) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            int start = HEADER_BYTES + 4 * records.size();
+            ArrayList<Integer> offsets = new ArrayList<>();
+            for (String[] r : records) {
+                offsets.add(start + out.size());
+                writeRecord(out, r[0], r[1]);
+            }
+            out.close();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream file = new DataOutputStream(bytes);
+            file.writeInt(MAGIC);
+            file.writeInt(records.size());
+            file.writeInt(start + body.size());
+            for (int offset : offsets) {
+                file.writeInt(offset);
+            }
+            file.write(body.toByteArray());
+            file.close();
+            File tmp = new File(_file.getPath() + ".tmp");
+            writeContents(tmp, bytes.toByteArray());
+            if (!tmp.renameTo(_file)) {
+                throw error("could not replace message index");
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding message index.");
+        }
+        _data = null;
+    }
+
+    /** Write the record with key KEY and commit id ID to OUT. */
+    private static void writeRecord(DataOutputStream out, String key,
+                                    String id) throws IOException {
+        writeString(out, key);
+        out.write(fromHex(id));
+    }
+
+    /** Order records X and Y by key, then by id. */
+    private static int compareRecords(String[] x, String[] y) {
+        int c = x[0].compareTo(y[0]);
+        return c != 0 ? c : x[1].compareTo(y[1]);
+    }
+
+    /** Return all records in the index, sorted. */
+    private TreeSet<String[]> allRecords() {
+        TreeSet<String[]> result = new TreeSet<>(MessageIndex::compareRecords);
+        for (int k = 0; k < _sorted; k += 1) {
+            result.add(new String[] { key(sorted(k)), id(sorted(k)) });
+        }
+        for (int pos : tail()) {
+            result.add(new String[] { key(pos), id(pos) });
+        }
+        return result;
+    }
+
+    /** Return the offsets of the records in the unsorted tail. */
+    private List<Integer> tail() {
+        ArrayList<Integer> result = new ArrayList<>();
+        int pos = _tailStart;
+        while (pos < _data.limit()) {
+            result.add(pos);
+            pos += 4 + _data.getInt(pos) + ID_BYTES;
+        }
+        return result;
+    }
+
+    /** Return the number of records in the unsorted tail. */
+    private int tailSize() {
+        return tail().size();
+    }
+
+    /** Return the offset of the Kth sorted record. */
+    private int sorted(int k) {
+        return _data.getInt(HEADER_BYTES + 4 * k);
+    }
+
+    /** Return the key of the record at offset POS. */
+    private String key(int pos) {
+        return readString(_data.duplicate().position(pos));
+    }
+
+    /** Return the commit id of the record at offset POS. */
+    private String id(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        _data.get(pos + 4 + _data.getInt(pos), id);
+        return toHex(id);
+    }
+
+    /** The index file. */
+    private final File _file;
+    /** The directory of commit objects. */
+    private final File _commits;
+    /** Contents of the index file, or null if not yet read. */
+    private ByteBuffer _data;
+    /** Number of sorted records. */
+    private int _sorted;
+    /** Offset of the first unsorted record. */
+    private int _tailStart;
+}
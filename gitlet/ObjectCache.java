@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/** A cache of objects of type V keyed by their SHA-1 ids, holding at most
+ *  a fixed total weight and evicting the least recently used objects
+ *  first.  Since objects with a given id never change, entries are only
+ *  invalidated when their objects are deleted.  Objects heavier than a
+ *  quarter of the capacity are not cached, so one large file cannot flush
+ *  everything else.  The cache counts hits, misses and evictions.  It may
+ *  be used from several threads at once. */
+class ObjectCache<V> {
+
+    /** A cache holding objects of total weight at most CAPACITY, where
+     *  WEIGHER gives the weight of each object. */
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        _capacity = capacity;
+        _weigher = weigher;
+    }
+
+    /** Return the object with id ID, or null if it is not cached. */
+    synchronized V get(String id) {
+        V result = _entries.get(id);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Cache VALUE as the object with id ID, evicting others as needed. */
+    synchronized void put(String id, V value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _capacity / 4 || _entries.containsKey(id)) {
+            return;
+        }
+        _entries.put(id, value);
+        _weight += weight;
+        Iterator<V> oldest = _entries.values().iterator();
+        while (_weight > _capacity) {
+            _weight -= _weigher.applyAsLong(oldest.next());
+            oldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Remove the object with id ID, if it is cached. */
+    synchronized void remove(String id) {
+        V value = _entries.remove(id);
+        if (value != null) {
+            _weight -= _weigher.applyAsLong(value);
+        }
+    }
+
+    /** Return the number of lookups that found their object. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of objects evicted to make room for others. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the total weight of the objects cached. */
+    synchronized long weight() {
+        return _weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d evictions, %d objects"
+                             + " of weight %d", _hits, _misses, _evictions,
+                             _entries.size(), _weight);
+    }
+
+    /** Largest total weight of the objects cached. */
+    private final long _capacity;
+    /** Gives the weight of each object. */
+    private final ToLongFunction<V> _weigher;
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<String, V> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the objects in _entries. */
+    private long _weight;
+    /** Counts of lookups that found and did not find their object, and of
+     *  evictions. */
+    private long _hits, _misses, _evictions;
+}
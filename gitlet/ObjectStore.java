@@ -0,0 +1,885 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Content-addressed storage for blobs.  New objects are written "loose",
+ *  one file per object named by its SHA-1.  repack() folds the loose
+ *  objects into an append-only pack file, a plain concatenation of object
+ *  contents, accompanied by an index file that maps each SHA-1 to its
+ *  offset and length in the pack.  Index entries are sorted by id and
+ *  preceded by a 256-entry fan-out table, so lookups are a binary search
+ *  over a small range.  Objects are read through memory mappings of the
+ *  files that hold them, and copied out with FileChannel.transferTo.
+ *  <p>
+ *  Objects of at least CHUNK_THRESHOLD bytes are split by Chunker into
+ *  content-defined chunks, each stored as an ordinary object, and the
+ *  object itself is stored as a manifest listing its chunks (a loose
+ *  ID.chunks file, or a pack entry of kind CHUNKED).  Versions of a large
+ *  file that differ by a small edit therefore share almost all of their
+ *  storage.  Readers reassemble chunked objects transparently.
+ *  <p>
+ *  If the store is given a Codec, objects other than manifests are stored
+ *  compressed whenever that makes them smaller (a loose ID.z file, or a
+ *  pack entry of kind CODED), behind a header naming the codec that
+ *  compressed them.  Reading, which decompresses them, works whatever
+ *  codec the store itself is given, and repack compresses the
+ *  uncompressed objects it packs.  Compressed objects are copied out
+ *  through the heap rather than transferred between channels.
+ *  <p>
+ *  Objects may be read and stored from several threads at once; only
+ *  repack must run alone. */
+class ObjectStore {
+
+    /** Magic number at the start of every pack index. */
+    static final int IDX_MAGIC = 0x47494458;
+    /** Current pack index format version.  Version 1 indices, which have
+     *  no object kinds, and version 2 indices, which have no CODED
+     *  objects, are still readable. */
+    static final int IDX_VERSION = 3;
+    /** Size in bytes of a binary object id. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Size in bytes of one index entry: id, offset, length.  The top byte
+     *  of the length holds the object's kind. */
+    static final int ENTRY_BYTES = ID_BYTES + 8 + 8;
+    /** Size in bytes of the index header: magic, version, fan-out. */
+    static final int HEADER_BYTES = 4 + 4 + 256 * 4;
+    /** Once more than this many packs exist, repack merges them all. */
+    static final int MAX_PACKS = 8;
+
+    /** Kind of an object stored as its plain contents. */
+    static final int RAW = 0;
+    /** Kind of an object stored as a manifest of chunks. */
+    static final int CHUNKED = 1;
+    /** Kind of an object stored compressed by a Codec. */
+    static final int CODED = 2;
+    /** Size of the buffers used to stream files into the store. */
+    static final int BUFFER_SIZE = 64 * 1024;
+    /** Objects at least this long are stored in chunks. */
+    static final int CHUNK_THRESHOLD = 1 << 20;
+    /** Total size in bytes of the objects kept in the cache of mapped
+     *  objects. */
+    static final long CACHE_BYTES = 64L << 20;
+    /** Suffix of loose chunk manifests. */
+    static final String MANIFEST_SUFFIX = ".chunks";
+    /** Suffix of loose compressed objects. */
+    static final String CODED_SUFFIX = ".z";
+    /** Position of the kind bits in a pack index length. */
+    private static final int KIND_SHIFT = 56;
+    /** Mask selecting the length bits of a pack index length. */
+    private static final long LENGTH_MASK = (1L << KIND_SHIFT) - 1;
+
+    /** A store whose loose objects live in LOOSE and whose packs live in
+     *  PACKS, storing objects uncompressed.  Either directory may not exist
+     *  yet. */
+    ObjectStore(File loose, File packs) {
+        this(loose, packs, null, -1);
+    }
+
+    /** A store whose loose objects live in LOOSE and whose packs live in
+     *  PACKS, compressing new objects with CODEC at LEVEL, or storing them
+     *  uncompressed if CODEC is null. */
+    ObjectStore(File loose, File packs, Codec codec, int level) {
+        _loose = loose;
+        _packs = packs;
+        _codec = codec;
+        _level = level;
+    }
+
+    /** Return true iff an object with id ID is stored. */
+    boolean contains(String id) {
+        return id.length() == UID_LENGTH
+            && (join(_loose, id).isFile()
+                || join(_loose, id + MANIFEST_SUFFIX).isFile()
+                || join(_loose, id + CODED_SUFFIX).isFile()
+                || findPacked(id) != null);
+    }
+
+    /** Return the contents of object ID.  Throws IllegalArgumentException
+     *  if there is no such object. */
+    byte[] read(String id) {
+        ByteBuffer mapped = map(id);
+        byte[] result = new byte[mapped.remaining()];
+        mapped.get(result);
+        return result;
+    }
+
+    /** Return a read-only view of the contents of object ID, mapped
+     *  directly from the file that stores it if the object is not chunked.
+     *  Recently read objects come from a cache.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    ByteBuffer map(String id) {
+        ByteBuffer cached = _cache.get(id);
+        if (cached != null) {
+            return cached.duplicate();
+        }
+        ByteBuffer result = mapUncached(id);
+        _cache.put(id, result);
+        return result.duplicate();
+    }
+
+    /** Return the cache of objects read by map. */
+    ObjectCache<ByteBuffer> cache() {
+        return _cache;
+    }
+
+    /** Return a read-only view of the contents of object ID, without
+     *  consulting the cache. */
+    private ByteBuffer mapUncached(String id) {
+        Location loc = locate(id);
+        if (loc.kind != CHUNKED) {
+            return contents(loc);
+        }
+        List<Location> chunks = chunks(loc);
+        long size = 0;
+        for (Location chunk : chunks) {
+            size += length(chunk);
+        }
+        ByteBuffer result = ByteBuffer.allocate(Math.toIntExact(size));
+        for (Location chunk : chunks) {
+            result.put(contents(chunk));
+        }
+        return result.flip().asReadOnlyBuffer();
+    }
+
+    /** Write the contents of object ID to DEST, creating or overwriting it
+     *  as needed.  Uncompressed bytes are transferred between channels,
+     *  without being copied onto the heap.  Throws IllegalArgumentException if there
+     *  is no such object or in case of problems. */
+    void copyTo(String id, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(), WRITE, CREATE,
+                                                TRUNCATE_EXISTING)) {
+            copyTo(id, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the contents of object ID to OUT, transferring them between
+     *  channels as for copyTo(String, File). */
+    void copyTo(String id, FileChannel out) throws IOException {
+        for (Location piece : pieces(id)) {
+            if (piece.kind == CODED) {
+                ByteBuffer contents = contents(piece);
+                while (contents.hasRemaining()) {
+                    out.write(contents);
+                }
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(piece.file.toPath(),
+                                                   READ)) {
+                transfer(in, piece.offset, piece.length, out);
+            }
+        }
+    }
+
+    /** Return the size in bytes of object ID, without reading it. */
+    long size(String id) {
+        long result = 0;
+        for (Location piece : pieces(id)) {
+            result += length(piece);
+        }
+        return result;
+    }
+
+    /** Return the first N bytes of object ID, or all of it if shorter.
+     *  Only the start of a chunked object is read. */
+    ByteBuffer head(String id, int n) {
+        ByteBuffer result = ByteBuffer.allocate(n);
+        for (Location piece : pieces(id)) {
+            if (!result.hasRemaining()) {
+                break;
+            }
+            ByteBuffer mapped = contents(piece);
+            mapped.limit(Math.min(mapped.limit(), result.remaining()));
+            result.put(mapped);
+        }
+        return result.flip();
+    }
+
+    /** Copy LENGTH bytes starting at OFFSET in IN to the end of OUT. */
+    static void transfer(FileChannel in, long offset, long length,
+                         FileChannel out) throws IOException {
+        while (length > 0) {
+            long n = in.transferTo(offset, length, out);
+            if (n <= 0) {
+                throw new IOException("short transfer");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /** Store CONTENT as object ID, unless it is already present. */
+    void write(String id, byte[] content) {
+        if (contains(id)) {
+            return;
+        }
+        Spool spool = new Spool(content.length);
+        spool.accept(ByteBuffer.wrap(content));
+        spool.finish(id);
+    }
+
+    /** Store the contents of SRC as an object, unless an identical object
+     *  is already present, and return its id.  SRC is read once, in
+     *  BUFFER_SIZE pieces that are hashed and spooled in the same pass:
+     *  into memory up to CHUNK_THRESHOLD bytes, and beyond that into
+     *  chunks, each stored as soon as it is cut.  Memory use therefore
+     *  does not depend on SRC's size, beyond the manifest of its chunk
+     *  ids. */
+    String insert(File src) {
+        if (!src.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try {
+            Spool spool = new Spool(src.length());
+            String id = stream(src, spool);
+            if (!contains(id)) {
+                spool.finish(id);
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id that the contents of SRC would have as an object,
+     *  without storing it. */
+    static String hash(File src) {
+        try {
+            return stream(src, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Read SRC in BUFFER_SIZE pieces, hashing each and passing it to
+     *  SPOOL unless SPOOL is null, and return the SHA-1 of SRC's
+     *  contents. */
+    private static String stream(File src, Spool spool) throws IOException {
+        MessageDigest md = sha1Digest();
+        ByteBuffer buf = BUFFER.get();
+        try (FileChannel in = FileChannel.open(src.toPath(), READ)) {
+            while (true) {
+                buf.clear();
+                if (in.read(buf) < 0) {
+                    break;
+                }
+                buf.flip();
+                md.update(buf.duplicate());
+                if (spool != null) {
+                    spool.accept(buf);
+                }
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /** Return a new SHA-1 digest. */
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** The contents of an object being stored, fed to it in pieces.  The
+     *  first CHUNK_THRESHOLD bytes are held in memory.  If there are more,
+     *  the contents are cut into chunks by a Chunker as they arrive, and
+     *  each chunk is hashed and stored, unless already present, as soon as
+     *  it is complete, so that only the current chunk and the list of
+     *  chunk ids are held. */
+    private class Spool {
+
+        /** A spool for contents expected to be SIZE bytes long. */
+        Spool(long size) {
+            _head = new byte[(int) Math.min(Math.max(size, 1),
+                                            CHUNK_THRESHOLD)];
+        }
+
+        /** Add the remaining bytes of DATA to the contents, advancing DATA
+         *  to its limit. */
+        void accept(ByteBuffer data) {
+            if (_head != null) {
+                int n = Math.min(data.remaining(),
+                                 CHUNK_THRESHOLD - _headLength);
+                if (_headLength + n > _head.length) {
+                    _head = Arrays.copyOf(_head, Math.min(
+                        Math.max(2 * _head.length, _headLength + n),
+                        CHUNK_THRESHOLD));
+                }
+                data.get(_head, _headLength, n);
+                _headLength += n;
+                if (_headLength < CHUNK_THRESHOLD) {
+                    return;
+                }
+                byte[] head = _head;
+                _head = null;
+                _chunker = new Chunker();
+                _chunk = new byte[Chunker.MAX_SIZE];
+                cut(ByteBuffer.wrap(head));
+            }
+            cut(data);
+        }
+
+        /** Store the contents as object ID: whole if they are shorter than
+         *  CHUNK_THRESHOLD, and otherwise as a manifest of the chunks. */
+        void finish(String id) {
+            if (_head != null) {
+                store(id, Arrays.copyOf(_head, _headLength));
+                return;
+            }
+            if (_chunkLength > 0) {
+                storeChunk();
+            }
+            ByteBuffer manifest = ByteBuffer.allocate(4 + _chunkIds.size());
+            manifest.putInt(_chunkIds.size() / ID_BYTES);
+            manifest.put(_chunkIds.toByteArray());
+            writeLoose(id, MANIFEST_SUFFIX, manifest.array());
+        }
+
+        /** Add the remaining bytes of DATA to the current chunk, storing
+         *  each chunk that they complete. */
+        private void cut(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                int end = _chunker.scan(data);
+                int n = end < 0 ? data.remaining() : end;
+                data.get(_chunk, _chunkLength, n);
+                _chunkLength += n;
+                if (end >= 0) {
+                    storeChunk();
+                }
+            }
+        }
+
+        /** Store the current chunk and start a new one. */
+        private void storeChunk() {
+            byte[] chunk = Arrays.copyOf(_chunk, _chunkLength);
+            String chunkId = sha1(chunk);
+            if (!contains(chunkId)) {
+                store(chunkId, chunk);
+            }
+            _chunkIds.writeBytes(fromHex(chunkId));
+            _chunkLength = 0;
+        }
+
+        /** The contents so far, while there are fewer than CHUNK_THRESHOLD
+         *  bytes, and null after that. */
+        private byte[] _head;
+        /** Number of bytes in _head. */
+        private int _headLength;
+        /** Finds the ends of chunks, once the contents are being chunked. */
+        private Chunker _chunker;
+        /** The current chunk. */
+        private byte[] _chunk;
+        /** Number of bytes in the current chunk. */
+        private int _chunkLength;
+        /** Binary ids of the chunks stored so far, in order. */
+        private final ByteArrayOutputStream _chunkIds =
+            new ByteArrayOutputStream();
+    }
+
+    /** Store CONTENT as loose object ID, compressed if this store has a
+     *  codec and that makes it smaller. */
+    private void store(String id, byte[] content) {
+        byte[] coded = _codec == null ? null : _codec.encode(content, _level);
+        if (coded != null) {
+            writeLoose(id, CODED_SUFFIX, coded);
+        } else {
+            writeLoose(id, "", content);
+        }
+    }
+
+    /** Write CONTENT as the loose file named ID followed by SUFFIX.  The
+     *  content goes to a uniquely named temporary file first, so several
+     *  threads may store the same object at once. */
+    private void writeLoose(String id, String suffix, byte[] content) {
+        _loose.mkdirs();
+        File tmp;
+        try {
+            tmp = Files.createTempFile(_loose.toPath(), "write", ".tmp")
+                .toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(tmp, content);
+        if (!tmp.renameTo(join(_loose, id + suffix))) {
+            tmp.delete();
+            throw error("could not store object %s", id);
+        }
+    }
+
+    /** Return the locations of the pieces of object ID in order: the
+     *  object itself, or its chunks. */
+    private List<Location> pieces(String id) {
+        Location loc = locate(id);
+        return loc.kind == CHUNKED ? chunks(loc) : List.of(loc);
+    }
+
+    /** Return the contents of the object or chunk at LOC, which is not a
+     *  manifest: mapped, or decompressed if it is CODED. */
+    private static ByteBuffer contents(Location loc) {
+        ByteBuffer mapped = map(loc);
+        return loc.kind == CODED ? Codec.decode(mapped) : mapped;
+    }
+
+    /** Return the length of the contents of the object or chunk at LOC,
+     *  which is not a manifest, reading only the header if it is CODED. */
+    private static long length(Location loc) {
+        return loc.kind == CODED ? Codec.decodedLength(map(loc)) : loc.length;
+    }
+
+    /** Return the locations of the chunks listed by the manifest at
+     *  LOC, in order. */
+    private List<Location> chunks(Location loc) {
+        ByteBuffer manifest = map(loc);
+        int n = manifest.getInt();
+        ArrayList<Location> result = new ArrayList<>(n);
+        byte[] chunkId = new byte[ID_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            manifest.get(chunkId);
+            result.add(locate(toHex(chunkId)));
+        }
+        return result;
+    }
+
+    /** Return a read-only mapping of the bytes at LOC. */
+    private static ByteBuffer map(Location loc) {
+        try (FileChannel in = FileChannel.open(loc.file.toPath(), READ)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, loc.offset,
+                          loc.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Move all loose objects into a new pack, merging existing packs as
+     *  well if there are too many of them.  Returns the number of objects
+     *  written to the new pack. */
+    int repack() {
+        List<String> loose = looseIds();
+        List<Pack> old = packs();
+        boolean merge = old.size() + 1 > MAX_PACKS;
+        if (loose.isEmpty() && !merge) {
+            return 0;
+        }
+
+        TreeSet<String> all = new TreeSet<>(loose);
+        if (merge) {
+            for (Pack p : old) {
+                for (int k = 0; k < p.count; k += 1) {
+                    all.add(p.id(k));
+                }
+            }
+        }
+        ArrayList<String> ids = new ArrayList<>(all);
+        File packFile = writePack(ids);
+
+        for (String id : loose) {
+            join(_loose, id).delete();
+            join(_loose, id + MANIFEST_SUFFIX).delete();
+            join(_loose, id + CODED_SUFFIX).delete();
+        }
+        if (merge) {
+            for (Pack p : old) {
+                if (!p.file.equals(packFile)) {
+                    p.index.delete();
+                    p.file.delete();
+                }
+            }
+            _loaded = null;
+        }
+        return ids.size();
+    }
+
+    /** Write the objects IDS, which must be sorted, to a new pack and
+     *  index, and return the pack file.  The pack is named by the hash of
+     *  IDS, and is complete before it is renamed into place. */
+    private File writePack(List<String> ids) {
+        _packs.mkdirs();
+        String name = "pack-" + sha1(String.join("", ids));
+        File packFile = join(_packs, name + ".pack");
+        File idxFile = join(_packs, name + ".idx");
+        File packTmp = join(_packs, name + ".pack.tmp");
+        File idxTmp = join(_packs, name + ".idx.tmp");
+
+        long[] offsets = new long[ids.size()];
+        long[] lengths = new long[ids.size()];
+        try (FileChannel out = FileChannel.open(packTmp.toPath(), WRITE,
+                                                CREATE, TRUNCATE_EXISTING)) {
+            for (int i = 0; i < ids.size(); i += 1) {
+                Location loc = locate(ids.get(i));
+                offsets[i] = out.position();
+                byte[] coded = encode(loc);
+                if (coded != null) {
+                    lengths[i] = coded.length | (long) CODED << KIND_SHIFT;
+                    ByteBuffer bytes = ByteBuffer.wrap(coded);
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    continue;
+                }
+                lengths[i] = loc.length | (long) loc.kind << KIND_SHIFT;
+                try (FileChannel in = FileChannel.open(loc.file.toPath(),
+                                                       READ)) {
+                    transfer(in, loc.offset, loc.length, out);
+                }
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("could not write pack: %s", excp.getMessage());
+        }
+        writeContents(idxTmp, encodeIndex(ids, offsets, lengths));
+
+        if (!packTmp.renameTo(packFile) || !idxTmp.renameTo(idxFile)) {
+            throw error("could not install pack %s", name);
+        }
+        _loaded = null;
+        return packFile;
+    }
+
+    /** Return the uncompressed object at LOC compressed by this store's
+     *  codec, or null if it is not uncompressed, there is no codec, or
+     *  compressing does not make it smaller. */
+    private byte[] encode(Location loc) {
+        if (_codec == null || loc.kind != RAW
+            || loc.length >= CHUNK_THRESHOLD) {
+            return null;
+        }
+        ByteBuffer mapped = map(loc);
+        byte[] content = new byte[mapped.remaining()];
+        mapped.get(content);
+        return _codec.encode(content, _level);
+    }
+
+    /** Rewrite one pack last modified no later than BEFORE (in
+     *  milliseconds since the epoch) that holds objects for which DEAD is
+     *  true, leaving those objects out, and return the number of objects
+     *  dropped.  Return -1 if there is no such pack.  A pack holding
+     *  nothing else is simply deleted. */
+    int prunePack(Predicate<String> dead, long before) {
+        for (Pack p : packs()) {
+            if (p.file.lastModified() > before) {
+                continue;
+            }
+            ArrayList<String> live = new ArrayList<>();
+            for (int k = 0; k < p.count; k += 1) {
+                String id = p.id(k);
+                if (dead.test(id)) {
+                    _cache.remove(id);
+                } else {
+                    live.add(id);
+                }
+            }
+            if (live.size() == p.count) {
+                continue;
+            }
+            if (!live.isEmpty()) {
+                writePack(live);
+            }
+            p.index.delete();
+            p.file.delete();
+            _loaded = null;
+            return p.count - live.size();
+        }
+        return -1;
+    }
+
+    /** Delete object ID if it is stored loose and was written no later
+     *  than BEFORE, in milliseconds since the epoch.  Return true iff it
+     *  was deleted. */
+    boolean deleteLoose(String id, long before) {
+        for (String suffix : new String[] { "", MANIFEST_SUFFIX,
+                                            CODED_SUFFIX }) {
+            File file = join(_loose, id + suffix);
+            if (file.isFile() && file.lastModified() <= before) {
+                _cache.remove(id);
+                return file.delete();
+            }
+        }
+        return false;
+    }
+
+    /** Return the ids of all objects, loose or packed, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        for (Pack p : packs()) {
+            for (int k = 0; k < p.count; k += 1) {
+                result.add(p.id(k));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of the chunks of object ID, in order, or no ids if
+     *  it is not chunked. */
+    List<String> chunkIds(String id) {
+        Location loc = locate(id);
+        if (loc.kind != CHUNKED) {
+            return List.of();
+        }
+        ByteBuffer manifest = map(loc);
+        int n = manifest.getInt();
+        ArrayList<String> result = new ArrayList<>(n);
+        byte[] chunkId = new byte[ID_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            manifest.get(chunkId);
+            result.add(toHex(chunkId));
+        }
+        return result;
+    }
+
+    /** Return the ids of all loose objects, in sorted order. */
+    List<String> looseIds() {
+        TreeSet<String> result = new TreeSet<>();
+        List<String> names = plainFilenamesIn(_loose);
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == UID_LENGTH) {
+                    result.add(name);
+                } else if (name.length()
+                           == UID_LENGTH + MANIFEST_SUFFIX.length()
+                           && name.endsWith(MANIFEST_SUFFIX)
+                           || name.length()
+                           == UID_LENGTH + CODED_SUFFIX.length()
+                           && name.endsWith(CODED_SUFFIX)) {
+                    result.add(name.substring(0, UID_LENGTH));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the index contents for objects IDS, which must be sorted,
+     *  stored at OFFSETS with LENGTHS. */
+    private static byte[] encodeIndex(List<String> ids, long[] offsets,
+                                      long[] lengths) {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(IDX_VERSION);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (int i = 0; i < ids.size(); i += 1) {
+                out.write(fromHex(ids.get(i)));
+                out.writeLong(offsets[i]);
+                out.writeLong(lengths[i]);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding pack index.");
+        }
+    }
+
+    /** Return the location of object ID, loose or packed.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    private Location locate(String id) {
+        File loose = join(_loose, id);
+        if (loose.isFile()) {
+            return new Location(loose, 0, loose.length(), RAW);
+        }
+        loose = join(_loose, id + MANIFEST_SUFFIX);
+        if (loose.isFile()) {
+            return new Location(loose, 0, loose.length(), CHUNKED);
+        }
+        loose = join(_loose, id + CODED_SUFFIX);
+        if (loose.isFile()) {
+            return new Location(loose, 0, loose.length(), CODED);
+        }
+        Location loc = findPacked(id);
+        if (loc == null) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        return loc;
+    }
+
+    /** Return the location of packed object ID, or null if it is not in
+     *  any pack. */
+    private Location findPacked(String id) {
+        byte[] key = fromHex(id);
+        for (Pack p : packs()) {
+            int k = p.find(key);
+            if (k >= 0) {
+                return new Location(p.file, p.offset(k), p.length(k),
+                                    p.kind(k));
+            }
+        }
+        return null;
+    }
+
+    /** Return the packs in this store, loading their indices if needed. */
+    private synchronized List<Pack> packs() {
+        if (_loaded == null) {
+            _loaded = new ArrayList<>();
+            List<String> names = plainFilenamesIn(_packs);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - 4);
+                        _loaded.add(new Pack(join(_packs, base + ".pack"),
+                                             join(_packs, name)));
+                    }
+                }
+            }
+        }
+        return _loaded;
+    }
+
+    /** A pack file together with its decoded index. */
+    private static class Pack {
+        /** The pack stored in FILE, indexed by INDEX. */
+        Pack(File file, File index) {
+            this.file = file;
+            this.index = index;
+            try (FileChannel in = FileChannel.open(index.toPath(), READ)) {
+                _idx = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_idx.getInt(0) != IDX_MAGIC || _idx.getInt(4) < 1
+                || _idx.getInt(4) > IDX_VERSION) {
+                throw error("corrupt pack index %s", index.getName());
+            }
+            count = _idx.getInt(HEADER_BYTES - 4);
+        }
+
+        /** Return the position of the entry for binary id KEY, or -1. */
+        int find(byte[] key) {
+            int b = key[0] & 0xff;
+            int lo = b == 0 ? 0 : fanout(b - 1);
+            int hi = fanout(b) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compareId(mid, key);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Return the hexadecimal id of entry K. */
+        String id(int k) {
+            byte[] id = new byte[ID_BYTES];
+            _idx.get(entry(k), id);
+            return toHex(id);
+        }
+
+        /** Return the pack offset of entry K. */
+        long offset(int k) {
+            return _idx.getLong(entry(k) + ID_BYTES);
+        }
+
+        /** Return the length of entry K. */
+        long length(int k) {
+            return _idx.getLong(entry(k) + ID_BYTES + 8) & LENGTH_MASK;
+        }
+
+        /** Return the kind of entry K. */
+        int kind(int k) {
+            return (int) (_idx.getLong(entry(k) + ID_BYTES + 8)
+                          >>> KIND_SHIFT);
+        }
+
+        /** Return the number of ids whose first byte is at most B. */
+        private int fanout(int b) {
+            return _idx.getInt(8 + 4 * b);
+        }
+
+        /** Return the index position of entry K. */
+        private int entry(int k) {
+            return HEADER_BYTES + k * ENTRY_BYTES;
+        }
+
+        /** Compare the id of entry K with KEY as unsigned bytes. */
+        private int compareId(int k, byte[] key) {
+            int p = entry(k);
+            for (int i = 0; i < ID_BYTES; i += 1) {
+                int c = Integer.compare(_idx.get(p + i) & 0xff,
+                                        key[i] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+
+        /** The pack and index files. */
+        final File file, index;
+        /** Number of objects in the pack. */
+        final int count;
+        /** Contents of the index file. */
+        private final ByteBuffer _idx;
+    }
+
+    /** Where the contents of an object live. */
+    private static class Location {
+        /** An object of kind KIND stored in LENGTH bytes at OFFSET in
+         *  FILE. */
+        Location(File file, long offset, long length, int kind) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.kind = kind;
+        }
+
+        /** The containing loose object or pack file. */
+        final File file;
+        /** Position and size of the object in the file. */
+        final long offset, length;
+        /** RAW, CHUNKED or CODED. */
+        final int kind;
+    }
+
+    /** Per-thread direct buffer reused by insert. */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /** Directory of loose objects. */
+    private final File _loose;
+    /** Directory of pack and index files. */
+    private final File _packs;
+    /** Codec compressing new objects, or null to store them as they
+     *  are. */
+    private final Codec _codec;
+    /** Level at which _codec compresses. */
+    private final int _level;
+    /** Packs whose indices have been read, or null if not yet loaded. */
+    private List<Pack> _loaded;
+    /** Recently read objects, mapped or reassembled. */
+    private final ObjectCache<ByteBuffer> _cache =
+        new ObjectCache<>(CACHE_BYTES, ByteBuffer::capacity);
+}
@@ -1,9 +1,15 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class Repo {
 
@@ -11,128 +17,315 @@ public class Repo {
     public static final File REPO = Utils.join(CWD, ".gitlet");
     public static final File BLOBS = Utils.join(REPO, "blobs");
     public static final File COMMITS = Utils.join(REPO, "commits");
+    /** Staging directories of older gitlets, now kept in INDEX. */
     public static final File STAGINGAREA = Utils.join(REPO, "stagingarea");
     public static final File TOREMOVE = Utils.join(REPO, "toremove");
     public static final File BRANCHES = Utils.join(REPO, "branches");
     public static final File HEAD = Utils.join(REPO, "HEAD.txt");
+    public static final File PACKS = Utils.join(REPO, "packs");
+    public static final File COMMIT_GRAPH = Utils.join(REPO, "commit-graph");
+    public static final File COMMIT_BITMAPS =
+            Utils.join(REPO, "commit-bitmaps");
+    public static final File COMMIT_INDEX = Utils.join(REPO, "commit-index");
+    public static final File INDEX = Utils.join(REPO, "index");
+    public static final File MESSAGE_INDEX = Utils.join(REPO, "message-index");
+    /** Settings of the repository (see Config). */
+    public static final File CONFIG = Utils.join(REPO, "config");
+    /** Progress of an unfinished garbage collection. */
+    public static final File GC_STATE = Utils.join(REPO, "gc-state");
+    /** Rough number of bytes of commits kept in memory once read. */
+    static final long COMMIT_CACHE_WEIGHT = 16L << 20;
+    /** Default age in seconds below which gc deletes nothing, so that
+     *  objects being written by other commands are left alone. */
+    static final long GC_GRACE_SECONDS = 60 * 60;
+
+    /** Settings read from CONFIG. */
+    private final Config config = new Config(CONFIG);
+    /** Compresses new objects and commits, or null if they are stored
+     *  uncompressed. */
+    private final Codec codec = config.codec();
+    /** Blob storage: loose files in BLOBS plus packs in PACKS. */
+    private final ObjectStore objects =
+            new ObjectStore(BLOBS, PACKS, codec, config.compressionLevel());
+    /** Parent links, generations and times of all commits. */
+    private final CommitGraph graph = new CommitGraph(COMMIT_GRAPH, COMMIT_BITMAPS, COMMITS);
+    /** Sorted commit ids, for resolving abbreviated ids. */
+    private final CommitIndex commitIndex =
+            new CommitIndex(COMMIT_INDEX, COMMITS);
+    /** Commit messages and their words, for find. */
+    private final MessageIndex messageIndex =
+            new MessageIndex(MESSAGE_INDEX, COMMITS);
+    /** Commits read so far, by id. */
+    private final ObjectCache<Commit> commits =
+            new ObjectCache<>(COMMIT_CACHE_WEIGHT, Repo::weight);
+    /** Cached metadata and blob ids of working files. */
+    private final Index index = new Index(INDEX);
+    /** Merges files changed on both sides of a merge. */
+    private final LineMerger merger =
+            new LineMerger(objects, config.mergeMaxBytes());
+    /** Deletes commits and objects that nothing refers to. */
+    private final GarbageCollector collector =
+            new GarbageCollector(GC_STATE, COMMITS, objects);
+    /** Updates the working directory when switching commits. */
+    private final Checkout checkout = new Checkout(CWD, objects, index);
+
+    public Repo() {
+        if (STAGINGAREA.isDirectory() || TOREMOVE.isDirectory()) {
+            importStagingDirectories();
+        }
+    }
 
     public void init() {
         if (REPO.exists()) {
-            System.out.println("A Gitlet version-control system "
+            throw error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
         }
         // create repository directories
         REPO.mkdir();
         BLOBS.mkdir();
+        PACKS.mkdir();
         COMMITS.mkdir();
-        STAGINGAREA.mkdir();
-        TOREMOVE.mkdir();
         BRANCHES.mkdir();
 
         // create and save initial commit
         Commit initialCommit = new Commit("initial commit", new Date(0));
-        String commit_ptr = sha1(serialize(initialCommit));
+        initialCommit.tree = Tree.update(objects, null, Map.of());
+        byte[] encoded = initialCommit.encode();
+        String commit_ptr = sha1(encoded);
 
-        writeObject(join(COMMITS, commit_ptr), initialCommit);
+        writeCommit(commit_ptr, encoded);
+        graph.add(commit_ptr, initialCommit);
+        commitIndex.add(commit_ptr);
+        messageIndex.add(commit_ptr, initialCommit.msg);
 
         // create and save initial branch
         Branch initialBranch = new Branch("master", commit_ptr);
-        writeObject(join(BRANCHES, initialBranch.name), initialBranch);
+        initialBranch.write(join(BRANCHES, initialBranch.name));
 
         // create and save head (head is basically a branch that points to initialBranch.
-        writeObject(HEAD, new Branch("HEAD", initialBranch.name));
+        new Branch("HEAD", initialBranch.name).write(HEAD);
     }
 
-    public void add(String file) {
-        File toAdd = Utils.join(CWD, file);
-        if (!toAdd.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+    public void add(String... paths) {
+        // expand directories and globs into the files they name
+        TreeSet<String> files = new TreeSet<>();
+        for (String path : paths) {
+            File toAdd = Utils.join(CWD, path);
+            if (toAdd.isDirectory()) {
+                String dir = relativePath(toAdd);
+                String prefix = dir.isEmpty() ? "" : dir + "/";
+                for (String file : workingFiles()) {
+                    if (file.startsWith(prefix)) {
+                        files.add(file);
+                    }
+                }
+            } else if (toAdd.exists()) {
+                files.add(relativePath(toAdd));
+            } else if (isGlob(path)) {
+                int found = files.size();
+                PathMatcher matcher =
+                        FileSystems.getDefault().getPathMatcher("glob:" + path);
+                for (String file : workingFiles()) {
+                    if (matcher.matches(Paths.get(file))) {
+                        files.add(file);
+                    }
+                }
+                if (files.size() == found) {
+                    throw error("File does not exist.");
+                }
+            } else {
+                throw error("File does not exist.");
+            }
         }
-        byte[] content = Utils.readContents(toAdd);
+
+        String[] blobIDs = storeFiles(new ArrayList<>(files));
 
         // Get the repo's current branch
-        String myBranchID = Utils.readObject(HEAD, Branch.class).ptr();
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, myBranchID), Branch.class);
+        String myBranchID = Branch.read(HEAD).ptr();
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, myBranchID));
 
         // Get the current commit, we need this info to know how staging area should behave
-        Commit myCommit = Utils.readObject(Utils.join(
-                COMMITS, myBranch.ptr()), Commit.class);
-
-        // if file was already staged for removal, unstage it
-        File addOrRm = Utils.join(TOREMOVE, file);
-        if (addOrRm.exists()) addOrRm.delete();
-
-        // if file has not been changed, but is in staging area, unstage it
-        addOrRm = Utils.join(STAGINGAREA, file);
-        if (myCommit.blobs.containsKey(file)
-            && myCommit.blobs.get(file).equals(Utils.sha1(content))) {
-            if (addOrRm.exists() && sha1(readContents(toAdd)).equals(content)) {
-                addOrRm.delete();
+        Snapshot myFiles = files(readCommit(myBranch.ptr()));
+
+        int k = 0;
+        for (String file : files) {
+            String blobID = blobIDs[k];
+            k += 1;
+            index.record(file, join(CWD, file), blobID);
+            // if file has not been changed, unstage it (this also cancels a
+            // staged removal); otherwise, stage the file for addition by
+            // recording its blob
+            if (blobID.equals(myFiles.get(file))) {
+                index.unstage(file);
+            } else {
+                index.stage(file, blobID);
             }
-            return;
         }
+        index.save();
+    }
 
-        // otherwise, we stage the file for addition
-        Utils.writeContents(addOrRm, content);
+    /** Return true iff PATH contains glob pattern characters. */
+    private static boolean isGlob(String path) {
+        return path.matches(".*[*?\\[{].*");
+    }
+
+    /** Store the contents of working files FILES in the object store and
+     *  return their blob ids, in the same order.  Files whose metadata is
+     *  unchanged since they were last hashed reuse the cached blob;
+     *  the others are hashed and stored in one pass each, in parallel on
+     *  up to one thread per processor. */
+    private String[] storeFiles(List<String> files) {
+        String[] blobIDs = new String[files.size()];
+        parallelFor(files.size(), k -> {
+            File file = join(CWD, files.get(k));
+            String blobID = index.cachedBlob(files.get(k), file);
+            if (blobID == null || !objects.contains(blobID)) {
+                blobID = objects.insert(file);
+            }
+            blobIDs[k] = blobID;
+        });
+        return blobIDs;
     }
 
     public void commit(String msg) {
-        if (STAGINGAREA.list().length == 0 && TOREMOVE.list().length == 0) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+        if (!index.hasStagedChanges()) {
+            throw error("No changes added to the commit.");
         }
         if (msg.length() == 0) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
 
-        Branch head = Utils.readObject(HEAD, Branch.class);
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, head.ptr), Branch.class);
-        Commit parent  = Utils.readObject(Utils.join(
-                COMMITS, myBranch.ptr), Commit.class);
-        Commit myCommit = new Commit(msg, myBranch.ptr, parent.blobs);
+        Branch head = Branch.read(HEAD);
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, head.ptr));
+        Commit parent  = readCommit(myBranch.ptr);
+        Commit myCommit = new Commit(msg, myBranch.ptr, new HashMap<>());
 
-        // put the individual files in myCommit's blob list
-        for (String file : Utils.plainFilenamesIn(STAGINGAREA)) {
-            byte[] content = Utils.readContents(Utils.join(
-                    STAGINGAREA, file));
-            String hashID = Utils.sha1(content);
-            myCommit.blobs.put(file, hashID);
-            Utils.writeContents(Utils.join(BLOBS, hashID), content);
-        }
-
-        // remove individual files in removal staging area from blob list
-        for (String file: Utils.plainFilenamesIn(TOREMOVE)) {
-            myCommit.blobs.remove(file);
-        }
+        // store the new snapshot, sharing unchanged directories
+        writeTree(myCommit, parent, stagedChanges());
 
         // clear staging area and removal area
         this.clearStagingArea();
 
         // write this object to the commit folder in .gitlet
-        String myCommitID = Utils.sha1(Utils.serialize(myCommit));
+        byte[] encoded = myCommit.encode();
+        String myCommitID = Utils.sha1(encoded);
 
         // advance branch's pointer to the newly created commit
         myBranch.advancePtr(myCommitID);
 
-        // write the serialized commit object to .gitlet
-        writeObject(join(COMMITS, myCommitID), myCommit);
+        // write the encoded commit object to .gitlet
+        writeCommit(myCommitID, encoded);
+        graph.add(myCommitID, myCommit);
+        commitIndex.add(myCommitID);
+        messageIndex.add(myCommitID, myCommit.msg);
 
         // overwrite the old branch
-        Utils.writeObject(Utils.join(BRANCHES, myBranch.name), myBranch);
+        myBranch.write(Utils.join(BRANCHES, myBranch.name));
+        index.save();
     }
 
-    private void clearStagingArea() {
-        for (File file: STAGINGAREA.listFiles()) {
-            file.delete();
+    /** Return the staged changes: files staged for addition mapped to
+     *  their blob ids, and files staged for removal mapped to null. */
+    private TreeMap<String, String> stagedChanges() {
+        TreeMap<String, String> changes = new TreeMap<>(index.staged());
+        for (String file : index.removed()) {
+            changes.put(file, null);
+        }
+        return changes;
+    }
+
+    /** Store the snapshot of COMMIT as trees, given that its files differ
+     *  from those of PARENT by CHANGES, which maps file names to blob ids,
+     *  or to null for removed files.  Only the tree nodes on the paths of
+     *  changed files are rewritten, unless PARENT predates trees. */
+    private void writeTree(Commit commit, Commit parent,
+                           Map<String, String> changes) {
+        if (parent.tree != null) {
+            commit.tree = Tree.update(objects, parent.tree, changes);
+            return;
+        }
+        HashMap<String, String> all = new HashMap<>(parent.blobs);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                all.remove(change.getKey());
+            } else {
+                all.put(change.getKey(), change.getValue());
+            }
         }
-        for (File file: TOREMOVE.listFiles()) {
-            file.delete();
+        commit.tree = Tree.update(objects, null, all);
+    }
+
+    /** Store ENCODED, the encoding of the commit with id ID, compressed if
+     *  a codec is configured and that makes it smaller.  Return true iff
+     *  it was compressed. */
+    private boolean writeCommit(String id, byte[] encoded) {
+        byte[] coded = codec == null ? null
+                : codec.encode(encoded, config.compressionLevel());
+        writeContents(join(COMMITS, id), coded != null ? coded : encoded);
+        return coded != null;
+    }
+
+    /** Return a view of the files of COMMIT, read only as needed. */
+    private Snapshot files(Commit commit) {
+        return new Snapshot(objects, commit);
+    }
+
+    /** Return the commit with id ID, which is read only the first time it
+     *  is asked for.  Commits read this way must not be modified. */
+    private Commit readCommit(String id) {
+        Commit result = commits.get(id);
+        if (result == null) {
+            result = Commit.read(join(COMMITS, id));
+            commits.put(id, result);
         }
+        return result;
+    }
+
+    /** Return the approximate number of bytes COMMIT occupies in memory. */
+    private static long weight(Commit commit) {
+        return 256 + 128L * commit.blobs.size();
+    }
+
+    /** Return a description of how well the object and commit caches are
+     *  working. */
+    public String cacheStats() {
+        return "objects: " + objects.cache() + "\ncommits: " + commits;
+    }
+
+    /** Return the paths of all plain files in the working directory and
+     *  its subdirectories, other than the repository itself, relative to
+     *  the working directory and in sorted order. */
+    private List<String> workingFiles() {
+        ArrayList<String> result = new ArrayList<>();
+        ArrayDeque<File> dirs = new ArrayDeque<>();
+        dirs.push(CWD);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                if (file.isDirectory()) {
+                    if (!file.equals(REPO)) {
+                        dirs.push(file);
+                    }
+                } else if (file.isFile()) {
+                    result.add(relativePath(file));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the path of FILE relative to the working directory, with
+     *  components separated by '/'. */
+    private static String relativePath(File file) {
+        Path path = CWD.toPath().relativize(file.toPath().normalize());
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    private void clearStagingArea() {
+        index.clearStaging();
     }
 
     public void checkOutCommands(String[] args) {
@@ -142,167 +335,223 @@ public class Repo {
                 break;
             case 2:
                 if (!args[0].equals("--")) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 fileCheckout(args[1]);
                 break;
             case 3:
                 if (!args[1].equals("--")) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 commitCheckout(args[0], args[2]);
                 break;
             default:
-                System.out.println("Incorrect operands.");
-                System.exit(0);
-                break;
+                throw error("Incorrect operands.");
         }
     }
 
     private void branchCheckout(String destBranchName) {
-        String currentBranchName = readObject(HEAD, Branch.class).ptr;
+        String currentBranchName = Branch.read(HEAD).ptr;
         // Edge case: checking out current branch
         if (currentBranchName.equals(destBranchName)) {
             System.out.println("No need to checkout the current branch.");
         }
         // Edge case: branch DNE
         if (!plainFilenamesIn(BRANCHES).contains(destBranchName)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
 
         // get a list of blobs in current commit
-        Branch currentBranch = readObject(join(
-                BRANCHES, currentBranchName), Branch.class);
-        Commit currentCommit = readObject(join(
-                COMMITS, currentBranch.ptr), Commit.class);
+        Branch currentBranch = Branch.read(join(
+                BRANCHES, currentBranchName));
+        Commit currentCommit = readCommit(currentBranch.ptr);
 
         // get a list of blobs in dest commit
-        Branch destBranch = readObject(join(
-                BRANCHES, destBranchName), Branch.class);
-        Commit destCommit = readObject(join(
-                COMMITS, destBranch.ptr), Commit.class);
-
-        List<String> workingFiles = plainFilenamesIn(CWD);
-        for (String file : workingFiles) {
-            boolean inCurrent = currentCommit.blobs.containsKey(file);
-            boolean inDest = destCommit.blobs.containsKey(file);
-            if (inDest && !inCurrent) {
-                System.out.println(
-                        "There is an untracked file in the way;"
-                                + " delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
+        Branch destBranch = Branch.read(join(
+                BRANCHES, destBranchName));
+        Commit destCommit = readCommit(destBranch.ptr);
 
-        for (String file : workingFiles) {
-            boolean inCurrent = currentCommit.blobs.containsKey(file);
-            boolean inDest = destCommit.blobs.containsKey(file);
-            // case 1: destBranch has file
-            if (!inDest && inCurrent) {
-                boolean deleted = join(CWD, file).delete();
-                assert (deleted);
-            }
-        }
+        Snapshot currentFiles = files(currentCommit);
+        Snapshot destFiles = files(destCommit);
+        TreeMap<String, String> changed =
+                Snapshot.diff(currentFiles, destFiles);
+        checkUntracked(currentFiles, changed);
 
-        for (java.util.Map.Entry<String, String> entry: destCommit.blobs.entrySet()) {
-            byte[] contents = readContents(join(BLOBS, entry.getValue()));
-            writeContents(join(CWD, entry.getKey()), contents);
-        }
+        // delete files the commit drops; write those not already in place
+        checkout.run(destFiles.all(), changed);
 
         clearStagingArea();
+        index.save();
 
-        Branch newHead = readObject(HEAD, Branch.class);
+        Branch newHead = Branch.read(HEAD);
         newHead.advancePtr(destBranchName);
-        writeObject(HEAD, newHead);
+        newHead.write(HEAD);
     }
 
-    private void fileCheckout(String fileName) {
-        String myBranchName = Utils.readObject(HEAD, Branch.class).ptr;
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, myBranchName), Branch.class);
-        Commit myCommit = Utils.readObject(Utils.join(
-                COMMITS, myBranch.ptr), Commit.class);
-        if (!myCommit.blobs.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+    /** Exit with an error if applying CHANGED, which maps files to their
+     *  new blob ids or null, to a working directory that should match
+     *  CURRENT would overwrite a working file CURRENT does not track. */
+    private void checkUntracked(Snapshot current, Map<String, String> changed) {
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            String file = entry.getKey();
+            if (entry.getValue() != null && !current.containsKey(file)
+                    && join(CWD, file).isFile()) {
+                throw error("There is an untracked file in the way;"
+                            + " delete it, or add and commit it first.");
+            }
         }
-        byte[] toWrite = Utils.readContents(Utils.join(
-                BLOBS, myCommit.blobs.get(fileName)));
-        Utils.writeContents(Utils.join(CWD, fileName), toWrite);
+    }
+
+    private void fileCheckout(String fileName) {
+        String myBranchName = Branch.read(HEAD).ptr;
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, myBranchName));
+        Snapshot myFiles = files(readCommit(myBranch.ptr));
+        if (!myFiles.containsKey(fileName)) {
+            throw error("File does not exist in that commit.");
+        }
+        checkoutBlob(myFiles.get(fileName), fileName);
+        index.save();
     }
 
     private void commitCheckout(String commitID, String fileName) {
-        if (Utils.join(COMMITS, commitID).exists()) {
-            safeCommitCheckout(commitID, fileName);
+        safeCommitCheckout(resolveCommit(commitID), fileName);
+    }
+
+    /** Return the full id of the commit whose id is or starts with
+     *  COMMITID, exiting with an error if there is no such commit or more
+     *  than one. */
+    private String resolveCommit(String commitID) {
+        if (commitID.length() == UID_LENGTH
+                && Utils.join(COMMITS, commitID).isFile()) {
+            return commitID;
         }
         // commitID too short
         if (commitID.length() < 6) {
             commitDNE();
         }
-        // find matching commit in .gitlet
-        String foundCommit = null;
-        for (String c : Utils.plainFilenamesIn(COMMITS)) {
-            if (commitID.length() <= c.length()
-                    && c.substring(0, commitID.length()).equals(commitID)) {
-                foundCommit = c;
-                break;
-            }
+        // find matching commits in the commit index
+        List<String> found = commitIndex.resolve(commitID, 2);
+        if (found.isEmpty() || !commitsExist(found)) {
+            // the index may predate commits made by an older gitlet, or
+            // still list commits deleted by an interrupted gc
+            commitIndex.rebuild();
+            found = commitIndex.resolve(commitID, 2);
         }
         // commit was never found
-        if (foundCommit == null) {
+        if (found.isEmpty() || !commitsExist(found)) {
             commitDNE();
         }
-        safeCommitCheckout(foundCommit, fileName);
+        if (found.size() > 1) {
+            throw error("More than one commit has an id starting with %s.",
+                        commitID);
+        }
+        return found.get(0);
+    }
+
+    /** Write the contents of BLOB to the working file FILE and remember
+     *  its metadata in the index. */
+    private void checkoutBlob(String blob, String file) {
+        File dest = join(CWD, file);
+        dest.getParentFile().mkdirs();
+        objects.copyTo(blob, dest);
+        index.record(file, dest, blob);
+    }
+
+    /** Exit with an error, before anything is written, if merging CHANGED,
+     *  the files that differ between BASE and the given branch, into MINE
+     *  would leave some path both a file and a directory. */
+    private void checkFileAndDirectory(Snapshot base, Snapshot mine,
+                                       Map<String, String> changed) {
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            String file = entry.getKey();
+            if (entry.getValue() == null) {
+                continue;
+            }
+            String clash = null;
+            for (int slash = file.indexOf('/'); slash >= 0 && clash == null;
+                    slash = file.indexOf('/', slash + 1)) {
+                String dir = file.substring(0, slash);
+                if (mine.containsKey(dir)
+                        && !mergeDeletes(dir, base, mine, changed)) {
+                    clash = dir;
+                }
+            }
+            for (String under : mine.filesUnder(file)) {
+                if (!mergeDeletes(under, base, mine, changed)) {
+                    clash = file;
+                }
+            }
+            if (clash != null) {
+                throw error("Cannot merge: %s is a file on one branch and"
+                            + " a directory on the other.", clash);
+            }
+        }
+    }
+
+    /** Return true iff merging CHANGED, the files that differ between
+     *  BASE and the given branch, into MINE deletes FILE: the given branch
+     *  removed it and the current branch left it as it was in BASE. */
+    private boolean mergeDeletes(String file, Snapshot base, Snapshot mine,
+                                 Map<String, String> changed) {
+        return changed.containsKey(file) && changed.get(file) == null
+                && mine.containsKey(file)
+                && mine.get(file).equals(base.get(file));
+    }
+
+    /** Return true iff every commit in IDS is still stored. */
+    private boolean commitsExist(List<String> ids) {
+        for (String id : ids) {
+            if (!join(COMMITS, id).isFile()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void commitDNE() {
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
+        throw error("No commit with that id exists.");
     }
 
     private void safeCommitCheckout(String commitID, String fileName) {
-        Commit myCommit = Utils.readObject(Utils.join(
-                COMMITS, commitID), Commit.class);
-        if (!myCommit.blobs.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+        Snapshot myFiles = files(readCommit(commitID));
+        if (!myFiles.containsKey(fileName)) {
+            throw error("File does not exist in that commit.");
         }
-        byte[] toWrite = Utils.readContents(Utils.join(
-                BLOBS, myCommit.blobs.get(fileName)));
-        Utils.writeContents(Utils.join(CWD, fileName), toWrite);
+        checkoutBlob(myFiles.get(fileName), fileName);
+        index.save();
     }
 
     public void log() {
-        String myBranchName = Utils.readObject(HEAD, Branch.class).ptr;
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, myBranchName), Branch.class);
-        String curName = myBranch.ptr;
-        while (curName != null) {
-            Commit myCommit = Utils.readObject(Utils.join(
-                    COMMITS, curName), Commit.class);
+        String myBranchName = Branch.read(HEAD).ptr;
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, myBranchName));
+        // follow first parents through the commit graph
+        int cur = graph.position(myBranch.ptr);
+        while (cur != CommitGraph.NONE) {
+            String curName = graph.id(cur);
+            Commit myCommit = Commit.readHeader(Utils.join(
+                    COMMITS, curName));
             String mergeLine = "";
-            if (myCommit.mergeParent != null) {
-                mergeLine = "Merge: " + myCommit.parent.substring(0, 7)
-                        + " " + myCommit.mergeParent.substring(0, 7) + "\n";
+            if (graph.mergeParent(cur) != CommitGraph.NONE) {
+                mergeLine = "Merge: " + graph.id(graph.parent(cur)).substring(0, 7)
+                        + " " + graph.id(graph.mergeParent(cur)).substring(0, 7) + "\n";
             }
             System.out.println(
                     "===\n"
-                    + "commit " + Utils.sha1(Utils.serialize(myCommit)) + "\n"
+                    + "commit " + curName + "\n"
                     + mergeLine
                     + "Date: " + myCommit.time + "\n"
                     + myCommit.msg + "\n"
                 );
-            curName = myCommit.parent;
+            cur = graph.parent(cur);
         }
     }
 
     public void logGlobal() {
         for (String curName : plainFilenamesIn(COMMITS)) {
-            Commit myCommit = Utils.readObject(Utils.join(
-                    COMMITS, curName), Commit.class);
+            Commit myCommit = Commit.readHeader(Utils.join(
+                    COMMITS, curName));
             String mergeLine = "";
             if (myCommit.mergeParent != null) {
                 mergeLine = "Merge: " + myCommit.parent.substring(0, 7)
@@ -310,7 +559,7 @@ public class Repo {
             }
             System.out.println(
                     "===\n"
-                    + "commit " + Utils.sha1(Utils.serialize(myCommit)) + "\n"
+                    + "commit " + curName + "\n"
                     + mergeLine
                     + "Date: " + myCommit.time + "\n"
                     + myCommit.msg + "\n"
@@ -321,22 +570,20 @@ public class Repo {
     public void createBranch(String name) {
         // if branch name already exists, throw an error
         if (plainFilenamesIn(BRANCHES).contains(name)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
-        String myBranchName = Utils.readObject(HEAD, Branch.class).ptr;
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, myBranchName), Branch.class);
+        String myBranchName = Branch.read(HEAD).ptr;
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, myBranchName));
         Branch babyBranch = new Branch(name, myBranch.ptr);
-        writeObject(join(BRANCHES, name), babyBranch);
+        babyBranch.write(join(BRANCHES, name));
     }
 
     public void rmBranch(String name) {
         // current branch cannot be removed
-        String currentBranch = readObject(HEAD, Branch.class).ptr;
+        String currentBranch = Branch.read(HEAD).ptr;
         if (currentBranch.equals(name)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
         // if branch exists, delete the branch file
@@ -347,53 +594,55 @@ public class Repo {
         }
 
         // else print an error message
-        System.out.println("A branch with that name does not exist.");
-        System.exit(0);
+        throw error("A branch with that name does not exist.");
     }
 
     public void rm(String fileName) {
-        String myBranchName = Utils.readObject(HEAD, Branch.class).ptr;
-        Branch myBranch = Utils.readObject(Utils.join(
-                BRANCHES, myBranchName), Branch.class);
-        Commit myCommit = Utils.readObject(Utils.join(
-                COMMITS, myBranch.ptr), Commit.class);
-
-        List<String> forAddition = plainFilenamesIn(STAGINGAREA);
-        if (!forAddition.contains(fileName)
-                && !myCommit.blobs.containsKey(fileName)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
-        }
-        if (forAddition.contains(fileName)) {
-            join(STAGINGAREA, fileName).delete();
-        }
-        if (myCommit.blobs.containsKey(fileName)) {
-            if (join(CWD, fileName).exists()) join(CWD, fileName).delete();
-            writeContents(join(
-                    TOREMOVE, fileName), myCommit.blobs.get(fileName));
-        }
-    }
-
-    public void find(String commitMsg) {
-        String printStr = "";
-        for (String commitID : plainFilenamesIn(COMMITS)) {
-            if (readObject(join(
-                    COMMITS, commitID), Commit.class).msg.equals(commitMsg)) {
-                printStr += commitID + "\n";
-            }
-        }
-        if (printStr.equals("")) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        String myBranchName = Branch.read(HEAD).ptr;
+        Branch myBranch = Branch.read(Utils.join(
+                BRANCHES, myBranchName));
+        Snapshot myFiles = files(readCommit(myBranch.ptr));
+
+        if (!index.staged().containsKey(fileName)
+                && !myFiles.containsKey(fileName)) {
+            throw error("No reason to remove the file.");
+        }
+        index.unstage(fileName);
+        if (myFiles.containsKey(fileName)) {
+            checkout.delete(fileName);
+            index.forget(fileName);
+            index.stageRemoval(fileName);
+        }
+        index.save();
+    }
+
+    /** Print the ids of all commits whose message is COMMITMSG, or, for
+     *  MODE "--prefix" or "--substring", starts with or contains it.  MODE
+     *  is null for exact matches. */
+    public void find(String mode, String commitMsg) {
+        List<String> found;
+        if (mode == null) {
+            found = messageIndex.find(commitMsg, false);
+        } else if (mode.equals("--prefix")) {
+            found = messageIndex.find(commitMsg, true);
+        } else if (mode.equals("--substring")) {
+            found = messageIndex.findSubstring(commitMsg);
+        } else {
+            throw error("Incorrect operands.");
+        }
+        if (found.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        for (String commitID : found) {
+            System.out.println(commitID);
         }
-        System.out.print(printStr);
     }
 
 
     public void status() {
         String statusStr = "";
         statusStr += "=== Branches ===" + "\n";
-        String curBranch = readObject(HEAD, Branch.class).ptr;
+        String curBranch = Branch.read(HEAD).ptr;
         for (String b : plainFilenamesIn((BRANCHES))) {
             if (b.equals(curBranch)) {
                 statusStr += "*";
@@ -404,266 +653,359 @@ public class Repo {
 
         statusStr = "";
         statusStr += "=== Staged Files ===" + "\n";
-        for (String s : plainFilenamesIn(STAGINGAREA)) {
+        for (String s : index.staged().keySet()) {
             statusStr += s + "\n";
         }
         System.out.println(statusStr);
 
         statusStr = "";
         statusStr += "=== Removed Files ===" + "\n";
-        for (String s : plainFilenamesIn(TOREMOVE)) {
+        for (String s : index.removed()) {
             statusStr += s + "\n";
         }
         System.out.println(statusStr);
 
-        // todo
+        Map<String, String> tracked = files(readCommit(
+                Branch.read(join(BRANCHES, curBranch)).ptr)).all();
+        Map<String, String> staged = index.staged();
+        Set<String> removed = index.removed();
+        TreeSet<String> working = new TreeSet<>(workingFiles());
+
+        // files whose metadata matches the index are not rehashed
+        TreeMap<String, String> modified = new TreeMap<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        for (String file : working) {
+            String expected = staged.containsKey(file)
+                    ? staged.get(file) : tracked.get(file);
+            if (expected == null || removed.contains(file)) {
+                untracked.add(file);
+            } else if (!expected.equals(index.blobOf(file, join(CWD, file)))) {
+                modified.put(file, "modified");
+            }
+        }
+        for (String file : staged.keySet()) {
+            if (!working.contains(file)) {
+                modified.put(file, "deleted");
+            }
+        }
+        for (String file : tracked.keySet()) {
+            if (!working.contains(file) && !removed.contains(file)) {
+                modified.put(file, "deleted");
+            }
+        }
+        index.save();
+
         statusStr = "";
         statusStr += "=== Modifications Not Staged For Commit ===" + "\n";
+        for (Map.Entry<String, String> entry : modified.entrySet()) {
+            statusStr += entry.getKey() + " (" + entry.getValue() + ")\n";
+        }
         System.out.println(statusStr);
 
-        // todo
         statusStr = "";
-        statusStr += "=== Untracked Files ===";
+        statusStr += "=== Untracked Files ===" + "\n";
+        for (String s : untracked) {
+            statusStr += s + "\n";
+        }
         System.out.println(statusStr);
     }
 
     public void reset(String commitID) {
-        if (commitID.length() < 6) {
-            commitDNE();
-        }
-        // find matching commit in .gitlet
-        String foundCommit = null;
-        for (String c : Utils.plainFilenamesIn(COMMITS)) {
-            if (commitID.length() <= c.length()) {
-                if (c.substring(0, commitID.length()).equals(commitID)) {
-                    foundCommit = c;
-                    break;
-                }
-            }
-        }
-        // commit was never found
-        if (foundCommit == null) {
-            commitDNE();
-        }
-        safeReset(foundCommit);
+        safeReset(resolveCommit(commitID));
     }
 
     private void safeReset(String commitID) {
-        Branch currentBranch = readObject(join(
-                BRANCHES, readObject(HEAD, Branch.class).ptr), Branch.class);
-        Commit currentCommit = readObject(join(
-                COMMITS, currentBranch.ptr), Commit.class);
-
-        Commit destCommit = readObject(join(COMMITS, commitID), Commit.class);
-
-        List<String> workingFiles = plainFilenamesIn(CWD);
-        for (String file : workingFiles) {
-            boolean inCurrent = currentCommit.blobs.containsKey(file);
-            boolean inDest = destCommit.blobs.containsKey(file);
-            if (inDest && !inCurrent) {
-                System.out.println(
-                        "There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
+        Branch currentBranch = Branch.read(join(
+                BRANCHES, Branch.read(HEAD).ptr));
+        Commit currentCommit = readCommit(currentBranch.ptr);
 
-        for (String file : workingFiles) {
-            boolean inCurrent = currentCommit.blobs.containsKey(file);
-            boolean inDest = destCommit.blobs.containsKey(file);
-            // case 1: destBranch has file
-            if (!inDest && inCurrent) {
-                boolean deleted = join(CWD, file).delete();
-                assert (deleted);
-            }
-        }
+        Commit destCommit = readCommit(commitID);
 
-        for (java.util.Map.Entry<String, String> entry: destCommit.blobs.entrySet()) {
-            byte[] contents = readContents(join(BLOBS, entry.getValue()));
-            writeContents(join(CWD, entry.getKey()), contents);
-        }
+        Snapshot currentFiles = files(currentCommit);
+        Snapshot destFiles = files(destCommit);
+        TreeMap<String, String> changed =
+                Snapshot.diff(currentFiles, destFiles);
+        checkUntracked(currentFiles, changed);
+
+        // delete files the commit drops; write those not already in place
+        checkout.run(destFiles.all(), changed);
 
         clearStagingArea();
+        index.save();
 
         currentBranch.ptr = commitID;
-        writeObject(join(
-                BRANCHES, readObject(HEAD, Branch.class).ptr), currentBranch);
+        currentBranch.write(join(BRANCHES, Branch.read(HEAD).ptr));
     }
 
     public void merge(String branchName) {
-        if (plainFilenamesIn(STAGINGAREA).size() > 0
-                || plainFilenamesIn(TOREMOVE).size() > 0) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (index.hasStagedChanges()) {
+            throw error("You have uncommitted changes.");
         }
         if (!plainFilenamesIn(BRANCHES).contains(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
-        String myBranch = readObject(HEAD, Branch.class).ptr;
+        String myBranch = Branch.read(HEAD).ptr;
         if (myBranch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
-        String myCommitID = readObject(join(
-                BRANCHES, myBranch), Branch.class).ptr;
-        String destCommitID = readObject(join(
-                BRANCHES, branchName), Branch.class).ptr;
-
-        ArrayList<String> myParents = traverseParents(myCommitID);
-        ArrayList<String> destParents = traverseParents(destCommitID);
-
-        String lca = "";
-        for (String id : myParents) {
-            if (destParents.contains(id)) {
-                lca = id;
-                break;
-            }
-        }
+        String myCommitID = Branch.read(join(
+                BRANCHES, myBranch)).ptr;
+        String destCommitID = Branch.read(join(
+                BRANCHES, branchName)).ptr;
 
-        if (lca.equals(myCommitID)) {
+        int myPos = graph.position(myCommitID);
+        int destPos = graph.position(destCommitID);
+        if (graph.isAncestor(myPos, destPos)) {
             System.out.println("Current branch fast-forwarded.");
             branchCheckout(branchName);
-            System.exit(0);
-        } else if (lca.equals(destCommitID)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
-        }
-
-        Commit myCommitObj = readObject(join(COMMITS, myCommitID), Commit.class);
-        Commit destCommitObj = readObject(join(COMMITS, destCommitID), Commit.class);
-        Commit lcaObj = readObject(join(COMMITS, lca), Commit.class);
-
-        for (String file : plainFilenamesIn(CWD)) {
-            boolean inCurrent = myCommitObj.blobs.containsKey(file);
-            boolean inDest = destCommitObj.blobs.containsKey(file);
-            if(!inCurrent && inDest) {
-                System.out.println("There is an untracked file in the way;"
-                        + " delete it, or add and commit it first.");
-                System.exit(0);
+            return;
+        } else if (graph.isAncestor(destPos, myPos)) {
+            throw error("Given branch is an ancestor of the current branch.");
+        }
+
+        // find the split point; of several equally good ones (criss-cross
+        // histories), use the most recent
+        List<Integer> bases = graph.mergeBases(myPos, destPos);
+        String lca = bases.isEmpty() ? "" : graph.id(bases.get(0));
+
+        Snapshot mine = files(readCommit(myCommitID));
+        Snapshot theirs = files(readCommit(destCommitID));
+        Snapshot base = files(readCommit(lca));
+
+        checkUntracked(mine, Snapshot.diff(mine, theirs));
+
+        // only files that changed between the split point and the given
+        // branch can need merging, so directories the two share are skipped
+        TreeMap<String, String> changed = Snapshot.diff(base, theirs);
+        checkFileAndDirectory(base, mine, changed);
+        ArrayList<String> toAdd = new ArrayList<>();
+
+        // files changed on both sides, merged line by line afterwards
+        ArrayList<String> both = new ArrayList<>();
+
+        // delete first, so that a file the given branch replaced with a
+        // directory is out of the way before the directory's files are
+        // written
+        for (String file: changed.keySet()) {
+            if (changed.get(file) != null) {
+                continue;
+            }
+            if (mergeDeletes(file, base, mine, changed)) {
+                checkout.delete(file);
+                index.forget(file);
+                index.stageRemoval(file);
+            } else if (mine.containsKey(file)
+                    && !mine.get(file).equals(base.get(file))
+                    && !theirs.containsKey(file)) {
+                both.add(file);
             }
         }
 
-        boolean hasConflict = false;
-        for (String file : destCommitObj.blobs.keySet()) {
-            boolean inCurrent = myCommitObj.blobs.containsKey(file);
-            if (lcaObj.blobs.containsKey(file)) {
-                if (inCurrent && myCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))
-                        && !destCommitObj.blobs.get(file).equals(myCommitObj.blobs.get(file))) {
-                    commitCheckout(destCommitID, file);
-                    add(file);
+        for (String file : changed.keySet()) {
+            if (changed.get(file) == null) {
+                continue;
+            }
+            boolean inCurrent = mine.containsKey(file);
+            if (base.containsKey(file)) {
+                if (inCurrent && mine.get(file).equals(base.get(file))
+                        && !theirs.get(file).equals(mine.get(file))) {
+                    checkoutBlob(theirs.get(file), file);
+                    toAdd.add(file);
                 } else if (inCurrent
-                        && !myCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))
-                        && !destCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))
-                        && !myCommitObj.blobs.get(file).equals(destCommitObj.blobs.get(file))) {
-                    writeConflict(file, myCommitObj.blobs.get(file), destCommitObj.blobs.get(file));
-                    hasConflict = true;
+                        && !mine.get(file).equals(base.get(file))
+                        && !theirs.get(file).equals(base.get(file))
+                        && !mine.get(file).equals(theirs.get(file))) {
+                    both.add(file);
                 } else if (!inCurrent
-                        && !destCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))) {
-                    writeConflict(file, "", destCommitObj.blobs.get(file));
-                    hasConflict = true;
+                        && !theirs.get(file).equals(base.get(file))) {
+                    both.add(file);
                 }
             } else if (inCurrent
-                    && !destCommitObj.blobs.get(file).equals(myCommitObj.blobs.get(file))) {
-                writeConflict(file, myCommitObj.blobs.get(file), destCommitObj.blobs.get(file));
-                hasConflict = true;
+                    && !theirs.get(file).equals(mine.get(file))) {
+                both.add(file);
             } else if (!inCurrent) {
-                commitCheckout(destCommitID, file);
-                add(file);
+                checkoutBlob(theirs.get(file), file);
+                toAdd.add(file);
             }
         }
 
-        for (String file: lcaObj.blobs.keySet()) {
-            if (myCommitObj.blobs.containsKey(file)
-                    && myCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))
-                    && !destCommitObj.blobs.containsKey(file)) {
-                rm(file);
-            } else if (myCommitObj.blobs.containsKey(file)
-                    && !myCommitObj.blobs.get(file).equals(lcaObj.blobs.get(file))
-                    && !destCommitObj.blobs.containsKey(file)) {
-                writeConflict(file, myCommitObj.blobs.get(file), "");
-                hasConflict = true;
-            }
+        // Snapshots are not thread-safe, so look the blobs up first
+        String[][] blobs = new String[both.size()][];
+        for (int k = 0; k < both.size(); k += 1) {
+            String file = both.get(k);
+            blobs[k] = new String[] {
+                base.get(file), mine.get(file), theirs.get(file) };
+        }
+        boolean[] conflicts = new boolean[both.size()];
+        parallelFor(both.size(), k -> conflicts[k] = merger.merge(
+                blobs[k][0], blobs[k][1], blobs[k][2],
+                join(CWD, both.get(k))));
+        toAdd.addAll(both);
+        boolean hasConflict = false;
+        for (boolean conflict : conflicts) {
+            hasConflict |= conflict;
+        }
+        if (!toAdd.isEmpty()) {
+            add(toAdd.toArray(new String[0]));
         }
 
         String msg = "Merged " + branchName + " into " + myBranch + ".";
 
-        if (STAGINGAREA.list().length == 0 && TOREMOVE.list().length == 0) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+        if (!index.hasStagedChanges()) {
+            throw error("No changes added to the commit.");
         }
         if (msg.length() == 0) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
-        }
-        Branch head = Utils.readObject(HEAD, Branch.class);
-        Branch myBranchObj = Utils.readObject(Utils.join(
-                BRANCHES, head.ptr), Branch.class);
-        Commit parent  = Utils.readObject(Utils.join(
-                COMMITS, myBranchObj.ptr), Commit.class);
-        Commit myCommit = new Commit(
-                msg, myCommitID, destCommitID, parent.blobs);
-
-        // put the individual files in myCommit's blob list
-        for (String file : Utils.plainFilenamesIn(STAGINGAREA)) {
-            byte[] content = Utils.readContents(Utils.join(
-                    STAGINGAREA, file));
-            String hashID = Utils.sha1(content);
-            myCommit.blobs.put(file, hashID);
-            Utils.writeContents(Utils.join(BLOBS, hashID), content);
+            throw error("Please enter a commit message.");
         }
+        Branch head = Branch.read(HEAD);
+        Branch myBranchObj = Branch.read(Utils.join(
+                BRANCHES, head.ptr));
+        Commit parent  = readCommit(myBranchObj.ptr);
+        Commit myCommit = new Commit(
+                msg, myCommitID, destCommitID, new HashMap<>());
 
-        // remove individual files in removal staging area from blob list
-        for (String file: Utils.plainFilenamesIn(TOREMOVE)) {
-            myCommit.blobs.remove(file);
-        }
+        // store the new snapshot, sharing unchanged directories
+        writeTree(myCommit, parent, stagedChanges());
 
         // clear staging area and removal area
         this.clearStagingArea();
 
         // write this object to the commit folder in .gitlet
-        String myNewCommitID = Utils.sha1(Utils.serialize(myCommit));
+        byte[] encoded = myCommit.encode();
+        String myNewCommitID = Utils.sha1(encoded);
 
         // advance branch's pointer to the newly created commit
         myBranchObj.advancePtr(myNewCommitID);
 
-        // write the serialized commit object to .gitlet
-        writeObject(join(COMMITS, myNewCommitID), myCommit);
+        // write the encoded commit object to .gitlet
+        writeCommit(myNewCommitID, encoded);
+        graph.add(myNewCommitID, myCommit);
+        commitIndex.add(myNewCommitID);
+        messageIndex.add(myNewCommitID, myCommit.msg);
 
         // overwrite the old branch
-        Utils.writeObject(Utils.join(BRANCHES, myBranchObj.name), myBranch);
+        myBranchObj.write(Utils.join(BRANCHES, myBranchObj.name));
+        index.save();
 
         if (hasConflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    private ArrayList<String> traverseParents(String commitID) {
-        LinkedList<String> q = new LinkedList<>();
-        q.add(commitID);
-        ArrayList<String> myParents = new ArrayList<>();
-        while (!q.isEmpty()) {
-            String cur = q.removeFirst();
-            myParents.add(cur);
-            Commit thisCommit = readObject(join(COMMITS, cur), Commit.class);
-            if (thisCommit.parent != null) {
-                q.addLast(thisCommit.parent);
+    public void repack() {
+        int packed = objects.repack();
+        System.out.println("Packed " + packed + " objects.");
+    }
+
+    /** Delete the commits and objects that no branch or staged file can
+     *  reach, as directed by OPTIONS: "--budget MILLIS" stops after about
+     *  MILLIS milliseconds, leaving the rest for later runs, and "--grace
+     *  SECONDS" spares anything written in the last SECONDS seconds rather
+     *  than GC_GRACE_SECONDS. */
+    public void gc(String... options) {
+        long budget = Long.MAX_VALUE, grace = GC_GRACE_SECONDS;
+        if (options.length % 2 != 0) {
+            throw error("Incorrect operands.");
+        }
+        for (int k = 0; k < options.length; k += 2) {
+            long value;
+            try {
+                value = Long.parseLong(options[k + 1]);
+            } catch (NumberFormatException excp) {
+                throw error("Incorrect operands.");
+            }
+            if (value < 0) {
+                throw error("Incorrect operands.");
+            } else if (options[k].equals("--budget")) {
+                budget = value;
+            } else if (options[k].equals("--grace")) {
+                grace = value;
+            } else {
+                throw error("Incorrect operands.");
+            }
+        }
+
+        ArrayList<String> heads = new ArrayList<>();
+        for (String name : plainFilenamesIn(BRANCHES)) {
+            heads.add(Branch.read(join(BRANCHES, name)).ptr());
+        }
+        long now = System.currentTimeMillis();
+        long deadline = budget > Long.MAX_VALUE - now ? Long.MAX_VALUE
+                : now + budget;
+        long before = now - Math.min(grace, now / 1000) * 1000;
+        boolean finished = collector.collect(heads, index.staged().values(),
+                                             deadline, before);
+        // drop deleted commits from the indexes, even if gc paused
+        if (collector.removedCommitsByCall() > 0) {
+            graph.rebuild();
+            commitIndex.rebuild();
+            messageIndex.rebuild();
+        }
+        if (!finished) {
+            System.out.println("Garbage collection paused; run gc again "
+                    + "to continue.");
+            return;
+        }
+        System.out.println("Removed " + collector.removedCommits()
+                + " commits and " + collector.removedObjects() + " objects.");
+    }
+
+    public void migrate() {
+        int converted = 0;
+        for (String id : plainFilenamesIn(COMMITS)) {
+            File file = join(COMMITS, id);
+            byte[] stored = readContents(file);
+            if (isSerialized(stored)) {
+                // the file keeps its name, so existing commit ids stay valid
+                writeCommit(id, Commit.read(file).encode());
+                converted += 1;
+            } else if (codec != null
+                    && !Codec.isEncoded(ByteBuffer.wrap(stored))
+                    && writeCommit(id, stored)) {
+                converted += 1;
             }
-            if (thisCommit.mergeParent != null) {
-                q.addLast(thisCommit.mergeParent);
+        }
+        ArrayList<File> branchFiles = new ArrayList<>();
+        for (String name : plainFilenamesIn(BRANCHES)) {
+            branchFiles.add(join(BRANCHES, name));
+        }
+        branchFiles.add(HEAD);
+        for (File file : branchFiles) {
+            if (isSerialized(readContents(file))) {
+                Branch.read(file).write(file);
+                converted += 1;
             }
         }
-        return myParents;
+        System.out.println("Migrated " + converted + " objects.");
     }
 
-    private void writeConflict(String file, String myBlob, String destBlob) {
-        String myVersion = join(BLOBS, myBlob).exists()
-                ? readContentsAsString(join(BLOBS, myBlob)) : "";
-        String destVersion = join(BLOBS, destBlob).exists()
-                ? readContentsAsString(join(BLOBS, destBlob)) : "";
-        writeContents(join(CWD, file), "<<<<<<< HEAD\n" + myVersion
-                + "=======\n" + destVersion + ">>>>>>>\n");
-        this.add(file);
+    /** Move the contents of the STAGINGAREA and TOREMOVE directories used
+     *  by older gitlets into the index, and delete the directories.  Files
+     *  in STAGINGAREA hold either a blob id or a copy of the staged
+     *  contents. */
+    private void importStagingDirectories() {
+        List<String> staged = plainFilenamesIn(STAGINGAREA);
+        for (String file : staged == null ? List.<String>of() : staged) {
+            File copy = join(STAGINGAREA, file);
+            String id = readContentsAsString(copy);
+            if (!(id.matches("[0-9a-f]{40}") && objects.contains(id))) {
+                id = objects.insert(copy);
+            }
+            index.stage(file, id);
+        }
+        List<String> removed = plainFilenamesIn(TOREMOVE);
+        for (String file : removed == null ? List.<String>of() : removed) {
+            index.stageRemoval(file);
+        }
+        index.save();
+        for (File dir : new File[] { STAGINGAREA, TOREMOVE }) {
+            File[] files = dir.listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                file.delete();
+            }
+            dir.delete();
+        }
     }
+
 }
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** A read-only view of the files of a commit, mapping their paths to blob
+ *  ids.  For commits stored with trees, nothing is read until asked for:
+ *  looking up a path reads only the tree nodes on that path, and the whole
+ *  tree is read only if all files are listed.  Commits made before trees
+ *  are viewed through the blob map they carry. */
+class Snapshot {
+
+    /** A view of the files of COMMIT, whose trees are in OBJECTS. */
+    Snapshot(ObjectStore objects, Commit commit) {
+        _objects = objects;
+        _tree = commit.tree;
+        if (_tree == null) {
+            _all = new TreeMap<>(commit.blobs);
+        }
+    }
+
+    /** Return the blob id of the file at PATH, or null if there is none. */
+    String get(String path) {
+        if (_all != null) {
+            return _all.get(path);
+        }
+        if (!_found.containsKey(path)) {
+            _found.put(path, Tree.find(_objects, _tree, path));
+        }
+        return _found.get(path);
+    }
+
+    /** Return true iff there is a file at PATH. */
+    boolean containsKey(String path) {
+        return get(path) != null;
+    }
+
+    /** Return the paths of the files below directory DIR, in sorted
+     *  order.  Only the tree nodes on the way to DIR and below it are
+     *  read. */
+    Set<String> filesUnder(String dir) {
+        if (_all != null) {
+            // '0' follows '/', so this is every path starting with DIR/
+            return _all.subMap(dir + "/", dir + "0").keySet();
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        String id = Tree.findDirectory(_objects, _tree, dir);
+        if (id != null) {
+            Tree.flatten(_objects, id, dir + "/", result);
+        }
+        return result.keySet();
+    }
+
+    /** Return the paths of all files, in sorted order. */
+    Set<String> keySet() {
+        return all().keySet();
+    }
+
+    /** Return all files mapped to their blob ids, in order of path. */
+    Map<String, String> all() {
+        if (_all == null) {
+            _all = new TreeMap<>();
+            Tree.flatten(_objects, _tree, "", _all);
+        }
+        return _all;
+    }
+
+    /** Return the files that differ between FROM and TO, mapped to their
+     *  blob ids in TO, or to null for files not in TO.  When both have
+     *  trees, directories they share are not examined. */
+    static TreeMap<String, String> diff(Snapshot from, Snapshot to) {
+        if (from._tree != null && to._tree != null) {
+            return Tree.diff(from._objects, from._tree, to._tree);
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String file : from.keySet()) {
+            if (!to.containsKey(file)) {
+                result.put(file, null);
+            }
+        }
+        for (Map.Entry<String, String> entry : to.all().entrySet()) {
+            if (!entry.getValue().equals(from.get(entry.getKey()))) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Where trees are stored. */
+    private final ObjectStore _objects;
+    /** Id of the root tree, or null for commits without trees. */
+    private final String _tree;
+    /** All files, once read, or null. */
+    private TreeMap<String, String> _all;
+    /** Results of lookups of single paths. */
+    private final HashMap<String, String> _found = new HashMap<>();
+}
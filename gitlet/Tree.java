@@ -0,0 +1,465 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** One directory of a commit's snapshot.  A tree maps the name of each
+ *  file or subdirectory in the directory to the id of its blob or subtree.
+ *  Trees are stored in the object store under the SHA-1 of their encoding,
+ *  so identical directories are stored once and shared between commits, and
+ *  two snapshots can be compared without looking inside any subdirectory
+ *  whose tree id is the same in both.
+ *  <p>
+ *  A directory of more than MAX_ENTRIES entries is not stored as a single
+ *  tree but as a hash trie: a bucket node holding up to FANOUT child nodes,
+ *  each covering the names whose hash has a given digit at the node's
+ *  depth.  The shape of a trie depends only on its contents, so identical
+ *  directories still have identical ids, and a change to one name rewrites
+ *  only the nodes on its path while the other buckets are shared with the
+ *  previous version.  Looking up one name reads only the nodes on its
+ *  path.
+ *  <p>
+ *  Paths in snapshots are relative to the working directory, with
+ *  components separated by '/'. */
+class Tree {
+
+    /** Marks the encoding of a tree holding its entries: "GLT" and a
+     *  version byte. */
+    static final int MAGIC = 0x474c5401;
+    /** Marks the encoding of a bucket node of a large directory. */
+    static final int BUCKETS_MAGIC = 0x474c5402;
+    /** Kind of an entry naming a file. */
+    static final int FILE = 0;
+    /** Kind of an entry naming a subdirectory. */
+    static final int TREE = 1;
+    /** Largest number of entries stored in one node. */
+    static final int MAX_ENTRIES = 256;
+    /** Number of children of a bucket node. */
+    static final int FANOUT = 16;
+    /** Depth below which nodes are never split, having used up all the
+     *  bits of the name hash. */
+    static final int MAX_DEPTH = 8;
+    /** The id of the empty tree. */
+    static final String EMPTY = sha1(new Tree().encode());
+
+    /** Return the id of the tree obtained by applying CHANGES to the tree
+     *  ROOT in OBJECTS, storing any new trees in OBJECTS.  CHANGES maps
+     *  file paths to new blob ids, or to null for files to remove.  A null
+     *  ROOT stands for an empty tree.  Subtrees with no changes are reused
+     *  as they are, and directories left empty are dropped. */
+    static String update(ObjectStore objects, String root,
+                         Map<String, String> changes) {
+        return updatePaths(objects, root, changes)._id;
+    }
+
+    /** Return the blob id of the file at PATH in tree ROOT in OBJECTS, or
+     *  null if there is none.  Only the nodes on PATH are read. */
+    static String find(ObjectStore objects, String root, String path) {
+        Entry entry = entry(objects, root, path);
+        return entry != null && entry.kind == FILE ? entry.id : null;
+    }
+
+    /** Return the id of the subtree for directory PATH in tree ROOT in
+     *  OBJECTS, or null if there is none.  Only the nodes on PATH are
+     *  read. */
+    static String findDirectory(ObjectStore objects, String root,
+                                String path) {
+        Entry entry = entry(objects, root, path);
+        return entry != null && entry.kind == TREE ? entry.id : null;
+    }
+
+    /** Add to RESULT the path and blob id of every file in tree ID in
+     *  OBJECTS, prefixing each path with PREFIX. */
+    static void flatten(ObjectStore objects, String id, String prefix,
+                        Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : entries(objects, id).entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.kind == FILE) {
+                result.put(prefix + e.getKey(), entry.id);
+            } else {
+                flatten(objects, entry.id, prefix + e.getKey() + "/", result);
+            }
+        }
+    }
+
+    /** Return the files that differ between trees FROM and TO in OBJECTS,
+     *  mapped to their blob ids in TO, or to null for files that are not
+     *  in TO.  Either tree may be null, standing for an empty tree.
+     *  Subtrees and buckets with the same id in both are skipped without
+     *  being read. */
+    static TreeMap<String, String> diff(ObjectStore objects, String from,
+                                        String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diffNodes(objects, from, to, "", result);
+        return result;
+    }
+
+    /** Add to TREES the ids of the subtrees and bucket nodes that node ID
+     *  in OBJECTS refers to directly, and to BLOBS the blob ids of the
+     *  files it lists. */
+    static void references(ObjectStore objects, String id,
+                           List<String> trees, List<String> blobs) {
+        Tree node = read(objects, id);
+        if (node._buckets != null) {
+            for (String child : node._buckets) {
+                if (child != null) {
+                    trees.add(child);
+                }
+            }
+            return;
+        }
+        for (Entry entry : node._entries.values()) {
+            (entry.kind == FILE ? blobs : trees).add(entry.id);
+        }
+    }
+
+    /** Return the tree with id ID in OBJECTS. */
+    static Tree read(ObjectStore objects, String id) {
+        try {
+            ByteBuffer in = objects.map(id);
+            int magic = in.getInt();
+            if (magic != MAGIC && magic != BUCKETS_MAGIC) {
+                throw new IllegalArgumentException("not a tree: " + id);
+            }
+            Tree result = new Tree();
+            result._id = id;
+            byte[] entryId = new byte[UID_LENGTH / 2];
+            if (magic == BUCKETS_MAGIC) {
+                result._buckets = new String[FANOUT];
+                result._counts = new int[FANOUT];
+                int present = in.getShort() & 0xffff;
+                for (int b = 0; b < FANOUT; b += 1) {
+                    if ((present & (1 << b)) != 0) {
+                        in.get(entryId);
+                        result._buckets[b] = toHex(entryId);
+                        result._counts[b] = in.getInt();
+                    }
+                }
+                return result;
+            }
+            int n = in.getInt();
+            for (int i = 0; i < n; i += 1) {
+                int kind = in.get();
+                String name = readString(in);
+                in.get(entryId);
+                result._entries.put(name, new Entry(kind, toHex(entryId)));
+            }
+            return result;
+        } catch (BufferUnderflowException excp) {
+            throw new IllegalArgumentException("truncated tree " + id);
+        }
+    }
+
+    /** Return this tree in the tree format.  A tree holding its entries is
+     *  MAGIC, the number of entries, and for each entry in order of name,
+     *  its kind as a byte, its name as a length-prefixed string and its
+     *  20-byte id.  A bucket node is BUCKETS_MAGIC, a 16-bit mask of the
+     *  buckets present, and for each of those in order, the child's 20-byte
+     *  id and its number of entries. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (_buckets != null) {
+                out.writeInt(BUCKETS_MAGIC);
+                int present = 0;
+                for (int b = 0; b < FANOUT; b += 1) {
+                    if (_buckets[b] != null) {
+                        present |= 1 << b;
+                    }
+                }
+                out.writeShort(present);
+                for (int b = 0; b < FANOUT; b += 1) {
+                    if (_buckets[b] != null) {
+                        out.write(fromHex(_buckets[b]));
+                        out.writeInt(_counts[b]);
+                    }
+                }
+            } else {
+                out.writeInt(MAGIC);
+                out.writeInt(_entries.size());
+                for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                    out.writeByte(e.getValue().kind);
+                    writeString(out, e.getKey());
+                    out.write(fromHex(e.getValue().id));
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+    }
+
+    /** Store this tree in OBJECTS, if not already there, and return its
+     *  id. */
+    String write(ObjectStore objects) {
+        byte[] encoded = encode();
+        _id = sha1(encoded);
+        objects.write(_id, encoded);
+        return _id;
+    }
+
+    /** Return the number of entries in this tree, including those in its
+     *  buckets. */
+    int size() {
+        if (_buckets == null) {
+            return _entries.size();
+        }
+        int n = 0;
+        for (int count : _counts) {
+            n += count;
+        }
+        return n;
+    }
+
+    /** Return the tree, rooted at node ROOT in OBJECTS, obtained by applying
+     *  CHANGES, which maps paths relative to that directory to blob ids or
+     *  null, as for update.  A null ROOT stands for an empty tree. */
+    private static Tree updatePaths(ObjectStore objects, String root,
+                                    Map<String, String> changes) {
+        TreeMap<String, Entry> direct = new TreeMap<>();
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey(), blob = change.getValue();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (blob != null) {
+                    direct.put(path, new Entry(FILE, blob));
+                } else {
+                    Entry old = lookup(objects, root, path, 0);
+                    if (old != null && old.kind == FILE) {
+                        direct.put(path, null);
+                    }
+                }
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash),
+                                        k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), blob);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> sub
+                 : subdirs.entrySet()) {
+            String name = sub.getKey();
+            Entry old = lookup(objects, root, name, 0);
+            String oldId = old != null && old.kind == TREE ? old.id : null;
+            Tree tree = updatePaths(objects, oldId, sub.getValue());
+            if (tree.size() > 0) {
+                direct.put(name, new Entry(TREE, tree._id));
+            } else if (oldId != null) {
+                direct.put(name, null);
+            }
+        }
+        return updateNode(objects, root, 0, direct);
+    }
+
+    /** Return the node at DEPTH obtained by applying CHANGES, which maps
+     *  names to new entries or to null for entries to remove, to node ID
+     *  in OBJECTS, or to an empty node if ID is null.  The result is stored
+     *  in OBJECTS. */
+    private static Tree updateNode(ObjectStore objects, String id, int depth,
+                                   TreeMap<String, Entry> changes) {
+        if (id != null && changes.isEmpty()) {
+            return read(objects, id);
+        }
+        Tree node = id == null ? new Tree() : read(objects, id);
+        if (node._buckets == null) {
+            for (Map.Entry<String, Entry> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    node._entries.remove(change.getKey());
+                } else {
+                    node._entries.put(change.getKey(), change.getValue());
+                }
+            }
+            return build(objects, node._entries, depth);
+        }
+        ArrayList<TreeMap<String, Entry>> groups = group(changes, depth);
+        for (int b = 0; b < FANOUT; b += 1) {
+            if (groups.get(b).isEmpty()) {
+                continue;
+            }
+            Tree child = updateNode(objects, node._buckets[b], depth + 1,
+                                    groups.get(b));
+            node._buckets[b] = child.size() == 0 ? null : child._id;
+            node._counts[b] = child.size();
+        }
+        if (node.size() <= MAX_ENTRIES) {
+            return build(objects, entries(objects, node), depth);
+        }
+        node.write(objects);
+        return node;
+    }
+
+    /** Return a stored node at DEPTH holding ENTRIES, split into buckets
+     *  if there are too many. */
+    private static Tree build(ObjectStore objects,
+                              TreeMap<String, Entry> entries, int depth) {
+        Tree node = new Tree();
+        if (entries.size() <= MAX_ENTRIES || depth >= MAX_DEPTH) {
+            node._entries.putAll(entries);
+        } else {
+            node._buckets = new String[FANOUT];
+            node._counts = new int[FANOUT];
+            ArrayList<TreeMap<String, Entry>> groups = group(entries, depth);
+            for (int b = 0; b < FANOUT; b += 1) {
+                if (!groups.get(b).isEmpty()) {
+                    Tree child = build(objects, groups.get(b), depth + 1);
+                    node._buckets[b] = child._id;
+                    node._counts[b] = child.size();
+                }
+            }
+        }
+        node.write(objects);
+        return node;
+    }
+
+    /** Return ENTRIES divided by their buckets at DEPTH. */
+    private static <V> ArrayList<TreeMap<String, V>> group(
+        TreeMap<String, V> entries, int depth) {
+        ArrayList<TreeMap<String, V>> result = new ArrayList<>(FANOUT);
+        for (int b = 0; b < FANOUT; b += 1) {
+            result.add(new TreeMap<>());
+        }
+        for (Map.Entry<String, V> e : entries.entrySet()) {
+            result.get(bucket(e.getKey(), depth)).put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /** Return the bucket of name NAME in a bucket node at DEPTH. */
+    private static int bucket(String name, int depth) {
+        int hash = name.hashCode() * 0x9e3779b9;
+        return (hash >>> (32 - 4 * (depth + 1))) & (FANOUT - 1);
+    }
+
+    /** Return the entry for the file or directory at PATH in tree ROOT in
+     *  OBJECTS, or null if there is none. */
+    private static Entry entry(ObjectStore objects, String root,
+                               String path) {
+        String dir = root;
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            String name = path.substring(start, slash < 0 ? path.length()
+                                                          : slash);
+            Entry entry = lookup(objects, dir, name, 0);
+            if (slash < 0 || entry == null || entry.kind != TREE) {
+                return slash < 0 ? entry : null;
+            }
+            dir = entry.id;
+            start = slash + 1;
+        }
+    }
+
+    /** Return the entry for NAME in the directory whose node at DEPTH is
+     *  ID in OBJECTS, or null if there is none or ID is null. */
+    private static Entry lookup(ObjectStore objects, String id, String name,
+                                int depth) {
+        while (id != null) {
+            Tree node = read(objects, id);
+            if (node._buckets == null) {
+                return node._entries.get(name);
+            }
+            id = node._buckets[bucket(name, depth)];
+            depth += 1;
+        }
+        return null;
+    }
+
+    /** Return all entries of the directory whose root node is ID in
+     *  OBJECTS. */
+    private static TreeMap<String, Entry> entries(ObjectStore objects,
+                                                  String id) {
+        return entries(objects, read(objects, id));
+    }
+
+    /** Return all entries under NODE in OBJECTS. */
+    private static TreeMap<String, Entry> entries(ObjectStore objects,
+                                                  Tree node) {
+        if (node._buckets == null) {
+            return new TreeMap<>(node._entries);
+        }
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (String child : node._buckets) {
+            if (child != null) {
+                result.putAll(entries(objects, child));
+            }
+        }
+        return result;
+    }
+
+    /** Add to RESULT the changes from node FROM to node TO, both at the
+     *  same depth of one directory, as for diff, prefixing each path with
+     *  PREFIX.  Null nodes are empty. */
+    private static void diffNodes(ObjectStore objects, String from,
+                                  String to, String prefix,
+                                  Map<String, String> result) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : read(objects, from);
+        Tree b = to == null ? new Tree() : read(objects, to);
+        if (a._buckets != null && b._buckets != null) {
+            for (int k = 0; k < FANOUT; k += 1) {
+                diffNodes(objects, a._buckets[k], b._buckets[k], prefix,
+                          result);
+            }
+            return;
+        }
+        TreeMap<String, Entry> x = entries(objects, a);
+        TreeMap<String, Entry> y = entries(objects, b);
+        TreeMap<String, Entry> names = new TreeMap<>(x);
+        names.putAll(y);
+        for (String name : names.keySet()) {
+            Entry u = x.get(name), v = y.get(name);
+            if (u != null && v != null && u.kind == v.kind && u.id.equals(v.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            String uTree = u != null && u.kind == TREE ? u.id : null;
+            String vTree = v != null && v.kind == TREE ? v.id : null;
+            if (uTree != null || vTree != null) {
+                diffNodes(objects, uTree, vTree, path + "/", result);
+            }
+            if (u != null && u.kind == FILE && (v == null || v.kind != FILE)) {
+                result.put(path, null);
+            }
+            if (v != null && v.kind == FILE) {
+                result.put(path, v.id);
+            }
+        }
+    }
+
+    /** An entry of a tree. */
+    private static class Entry {
+        /** An entry of kind KIND (FILE or TREE) naming object ID. */
+        Entry(int kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        /** FILE or TREE. */
+        final int kind;
+        /** Id of the blob or subtree. */
+        final String id;
+    }
+
+    /** Id of this tree, once read or written. */
+    private String _id;
+    /** Entries by name, unless this is a bucket node. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+    /** Ids of the children of a bucket node, with null for empty buckets,
+     *  or null if this node holds its entries directly. */
+    private String[] _buckets;
+    /** Numbers of entries under each child of a bucket node. */
+    private int[] _counts;
+}